@@ -0,0 +1,325 @@
+package dast;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import tools.Benchmark;
+
+/**
+ * An Aho-Corasick automaton, which finds every occurrence of every pattern in
+ * a text in one pass, however many patterns there are.
+ *
+ * The states are the nodes of a trie of the patterns, a node with a run
+ * giving one state per digit of the run. They are numbered breadth first and
+ * their edges are kept in three flat arrays. Each state also has a failure
+ * link to the state of the longest proper suffix of its path that is also a
+ * path in the trie, followed when the next character has no edge, and an
+ * output link to the nearest state along its failure links that ends a
+ * pattern, so every match ending at a character is reported without looking
+ * at the states in between.
+ *
+ * Characters are turned into digits by the SymbolCodec of the trie. A
+ * character outside its alphabet matches nothing and sends the automaton back
+ * to the root.
+ *
+ * @author Dov Neimand
+ */
+public class AhoCorasick {
+
+    /**
+     * Told of each match.
+     */
+    @FunctionalInterface
+    public interface Listener {
+
+        /**
+         * A pattern was found.
+         *
+         * @param end The index in the text just after the match.
+         * @param length The length of the pattern found, so the match starts
+         * at end - length.
+         */
+        void match(long end, int length);
+    }
+
+    private final SymbolCodec codec;
+
+    /**
+     * The edges of state s are edgeStart[s] to edgeStart[s + 1] in
+     * edgeLabel, sorted by digit, and in edgeTarget.
+     */
+    private int[] edgeStart, edgeLabel, edgeTarget;
+
+    /**
+     * For each state, its failure link, its output link or -1 if it has
+     * none, and the number of digits leading to it.
+     */
+    private int[] fail, out, depth;
+
+    /**
+     * For each state, does a pattern end there.
+     */
+    private boolean[] terminal;
+
+    private int numStates;
+
+    /**
+     * The constructor.
+     *
+     * @param patterns A trie of the patterns, built with a SymbolCodec.
+     * @throws IllegalArgumentException If the trie is not built with a
+     * SymbolCodec.
+     */
+    public AhoCorasick(Trie<String> patterns) {
+        if (!(patterns.getMap() instanceof SymbolCodec))
+            throw new IllegalArgumentException("The patterns must be in a "
+                    + "trie built with a SymbolCodec.");
+        codec = (SymbolCodec) patterns.getMap();
+        build(patterns.root());
+    }
+
+    /**
+     * An automaton for some patterns.
+     *
+     * @param codec The alphabet of the patterns.
+     * @param patterns The patterns.
+     * @return An automaton finding the patterns.
+     */
+    public static AhoCorasick of(SymbolCodec codec, String... patterns) {
+        Trie<String> trie = new Trie<>(codec, true);
+        trie.insert(patterns);
+        return new AhoCorasick(trie);
+    }
+
+    /**
+     * Numbers the states breadth first and links them.
+     *
+     * @param root The root of the trie of patterns.
+     */
+    private void build(TrieNode root) {
+        int capacity = 64;
+        TrieNode[] nodes = new TrieNode[capacity];
+        int[] runPos = new int[capacity];
+        edgeStart = new int[capacity + 1];
+        edgeLabel = new int[capacity];
+        edgeTarget = new int[capacity];
+        fail = new int[capacity];
+        out = new int[capacity];
+        depth = new int[capacity];
+        terminal = new boolean[capacity];
+
+        nodes[0] = root;
+        terminal[0] = root.isTerminal();
+        out[0] = -1;
+        numStates = 1;
+        int numEdges = 0;
+
+        for (int s = 0; s < numStates; s++) {
+            edgeStart[s] = numEdges;
+            TrieNode n = nodes[s];
+            int pos = runPos[s];
+            for (int digit = pos < n.runLength() ? n.run(pos) : n.nextDigit(0);
+                    digit >= 0;
+                    digit = pos < n.runLength() ? -1 : n.nextDigit(digit + 1)) {
+                if (numStates == capacity) {
+                    capacity *= 2;
+                    nodes = Arrays.copyOf(nodes, capacity);
+                    runPos = Arrays.copyOf(runPos, capacity);
+                    edgeStart = Arrays.copyOf(edgeStart, capacity + 1);
+                    edgeLabel = Arrays.copyOf(edgeLabel, capacity);
+                    edgeTarget = Arrays.copyOf(edgeTarget, capacity);
+                    fail = Arrays.copyOf(fail, capacity);
+                    out = Arrays.copyOf(out, capacity);
+                    depth = Arrays.copyOf(depth, capacity);
+                    terminal = Arrays.copyOf(terminal, capacity);
+                }
+                int t = numStates++;
+                if (pos < n.runLength()) {
+                    nodes[t] = n;
+                    runPos[t] = pos + 1;
+                } else {
+                    nodes[t] = n.child(digit);
+                    runPos[t] = 0;
+                }
+                terminal[t] = runPos[t] == nodes[t].runLength()
+                        && nodes[t].isTerminal();
+                depth[t] = depth[s] + 1;
+                edgeLabel[numEdges] = digit;
+                edgeTarget[numEdges++] = t;
+
+                fail[t] = s == 0 ? 0 : link(fail[s], digit);
+                out[t] = terminal[fail[t]] ? fail[t] : out[fail[t]];
+            }
+        }
+        edgeStart[numStates] = numEdges;
+    }
+
+    /**
+     * The state reached from a state by an edge.
+     *
+     * @param s The state.
+     * @param digit The digit of the edge.
+     * @return The state the edge leads to, or -1 if there is no such edge.
+     */
+    private int edge(int s, int digit) {
+        int j = Arrays.binarySearch(edgeLabel, edgeStart[s], edgeStart[s + 1],
+                digit);
+        return j < 0 ? -1 : edgeTarget[j];
+    }
+
+    /**
+     * The state after reading a digit, following failure links until there
+     * is an edge for it.
+     *
+     * @param s The state before the digit.
+     * @param digit The digit, or -1 for a character outside the alphabet.
+     * @return The state after the digit.
+     */
+    private int link(int s, int digit) {
+        if (digit < 0) return 0;
+        while (true) {
+            int t = edge(s, digit);
+            if (t >= 0) return t;
+            if (s == 0) return 0;
+            s = fail[s];
+        }
+    }
+
+    /**
+     * The number of states.
+     *
+     * @return The number of states in the automaton.
+     */
+    public int numStates() {
+        return numStates;
+    }
+
+    /**
+     * Starts a scan of a text that may come in pieces.
+     *
+     * @param listener Told of each match.
+     * @return A scan at the start of the text.
+     */
+    public Scan scan(Listener listener) {
+        return new Scan(listener);
+    }
+
+    /**
+     * Finds every match in a text.
+     *
+     * @param text The text.
+     * @param listener Told of each match.
+     */
+    public void scan(CharSequence text, Listener listener) {
+        Scan scan = scan(listener);
+        for (int i = 0; i < text.length(); i++) scan.feed(text.charAt(i));
+    }
+
+    /**
+     * A pass over a text, which may be fed to it in pieces. Matches that
+     * span pieces are found.
+     */
+    public class Scan {
+
+        private final Listener listener;
+        private int state;
+        private long position;
+
+        /**
+         * The constructor.
+         *
+         * @param listener Told of each match.
+         */
+        private Scan(Listener listener) {
+            this.listener = listener;
+        }
+
+        /**
+         * Reads one character.
+         *
+         * @param c The character.
+         */
+        public void feed(char c) {
+            state = link(state, codec.digitOf(c));
+            position++;
+            for (int s = terminal[state] ? state : out[state]; s >= 0;
+                    s = out[s])
+                listener.match(position, depth[s]);
+        }
+
+        /**
+         * Reads the remaining characters of a buffer.
+         *
+         * @param text The characters.
+         */
+        public void feed(CharBuffer text) {
+            while (text.hasRemaining()) feed(text.get());
+        }
+
+        /**
+         * Reads the remaining bytes of a buffer, each byte being one
+         * ISO-8859-1 character, so ASCII text is read as it is written.
+         *
+         * @param text The bytes.
+         */
+        public void feed(ByteBuffer text) {
+            while (text.hasRemaining()) feed((char) (text.get() & 0xFF));
+        }
+
+        /**
+         * Reads everything left in a reader.
+         *
+         * @param text The reader.
+         * @throws IOException If the reader can not be read.
+         */
+        public void feed(Reader text) throws IOException {
+            char[] buffer = new char[8192];
+            for (int read; (read = text.read(buffer)) >= 0;)
+                for (int i = 0; i < read; i++) feed(buffer[i]);
+        }
+
+        /**
+         * The number of characters read so far.
+         *
+         * @return The index in the text of the next character.
+         */
+        public long position() {
+            return position;
+        }
+    }
+
+    /**
+     * Finds some words in a sentence, then measures how fast thousands of
+     * words are found in a long text.
+     *
+     * @param args Optionally the name of a file with one word per line.
+     * Otherwise made up words are used.
+     * @throws IOException If the file can not be read.
+     */
+    public static void main(String[] args) throws IOException {
+        String text = "ushers she said, his hershey";
+        AhoCorasick ac = of(SymbolCodec.letters(), "he", "she", "his",
+                "hers");
+        ac.scan((end, length) -> System.out.println(
+                text.substring((int) (end - length), (int) end) + " at "
+                + (end - length))).feed(new StringReader(text));
+
+        String[] words = Benchmark.words(args, 100_000);
+        for (int patterns : new int[]{10, 1_000, 10_000}) {
+            AhoCorasick many = of(SymbolCodec.letters(),
+                    Arrays.copyOf(words, patterns));
+            StringBuilder log = new StringBuilder();
+            for (int i = 0; log.length() < 10_000_000; i++)
+                log.append(words[(int) (i * 7919L % words.length)]).append(' ');
+            long[] matches = new long[1];
+            long start = System.nanoTime();
+            many.scan(log, (end, length) -> matches[0]++);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%,d patterns: %,d matches, %.0f MB/s%n",
+                    patterns, matches[0], log.length() / seconds / 1e6);
+        }
+    }
+}
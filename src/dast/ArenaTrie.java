@@ -0,0 +1,453 @@
+package dast;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import tools.Benchmark;
+
+/**
+ * A trie whose nodes are not objects but indices into a few large primitive
+ * arrays, so however many nodes it has, the garbage collector sees a handful
+ * of arrays and no object graph.
+ *
+ * Each node has a first child, a next sibling and the digit leading to it,
+ * and a bit saying whether it is terminal. Siblings are kept sorted by digit.
+ * The arrays grow in chunks of CHUNK nodes, so growing never copies the nodes
+ * already there. Node 0 is the root, and since the root is nobody's child or
+ * sibling, 0 also stands for no node. Nodes cut off by a delete go on a free
+ * list, threaded through their sibling links, and are reused before the
+ * arrays grow.
+ *
+ * Finding a child walks the node's siblings, so this trie suits alphabets
+ * where most nodes have few children, which is most nodes of most tries.
+ *
+ * @author Dov Neimand
+ * @param <T> The type of element in the trie.
+ */
+public class ArenaTrie<T> {
+
+    /**
+     * The number of nodes in a chunk is 1 << CHUNK_BITS.
+     */
+    private static final int CHUNK_BITS = 16, CHUNK = 1 << CHUNK_BITS,
+            MASK = CHUNK - 1;
+
+    private final toBoundedIntArray<T> map;
+    private final DigitCodec<T> codec;
+    private final DigitCodec<int[]> digits;
+
+    /**
+     * The first child, next sibling and digit of each node, by chunk.
+     */
+    private int[][] child, sibling, label;
+
+    /**
+     * The terminal bit of each node, by chunk.
+     */
+    private long[][] terminal;
+
+    /**
+     * The number of node indices ever handed out, and the first node on the
+     * free list, 0 if it is empty.
+     */
+    private int numNodes, freeHead;
+
+    /**
+     * The number of free nodes.
+     */
+    private int numFree;
+
+    private int size;
+
+    /**
+     * The indices of the nodes on the path of the last delete.
+     */
+    private int[] path = new int[16];
+
+    /**
+     * The constructor.
+     *
+     * @param map A one to one function that maps whatever objects you want to
+     * store in the trie to a sequence of integers from 0 to its upper bound.
+     */
+    public ArenaTrie(toBoundedIntArray<T> map) {
+        this.map = map;
+        this.codec = map instanceof DigitCodec ? (DigitCodec<T>) map : null;
+        this.digits = DigitCodec.array(map.getUpperBound());
+        child = new int[1][CHUNK];
+        sibling = new int[1][CHUNK];
+        label = new int[1][CHUNK];
+        terminal = new long[1][CHUNK / 64];
+        numNodes = 1;
+    }
+
+    /**
+     * An arena trie designed to contain single words, no spaces, of upper
+     * and lower case letter.
+     *
+     * @return An arena trie designed to hold single words.
+     */
+    public static ArenaTrie<String> wordTrie() {
+        return new ArenaTrie<>(SymbolCodec.letters());
+    }
+
+    private int child(int n) {
+        return child[n >>> CHUNK_BITS][n & MASK];
+    }
+
+    private int sibling(int n) {
+        return sibling[n >>> CHUNK_BITS][n & MASK];
+    }
+
+    private int label(int n) {
+        return label[n >>> CHUNK_BITS][n & MASK];
+    }
+
+    private boolean isTerminal(int n) {
+        return (terminal[n >>> CHUNK_BITS][(n & MASK) >>> 6] & 1L << n) != 0;
+    }
+
+    private void setChild(int n, int c) {
+        child[n >>> CHUNK_BITS][n & MASK] = c;
+    }
+
+    private void setSibling(int n, int s) {
+        sibling[n >>> CHUNK_BITS][n & MASK] = s;
+    }
+
+    private void setTerminal(int n, boolean t) {
+        if (t) terminal[n >>> CHUNK_BITS][(n & MASK) >>> 6] |= 1L << n;
+        else terminal[n >>> CHUNK_BITS][(n & MASK) >>> 6] &= ~(1L << n);
+    }
+
+    /**
+     * The child of a node with a digit.
+     *
+     * @param n The node.
+     * @param digit The digit.
+     * @return The child, or 0 if there is none.
+     */
+    private int find(int n, int digit) {
+        int c = child(n);
+        while (c != 0 && label(c) < digit) c = sibling(c);
+        return c != 0 && label(c) == digit ? c : 0;
+    }
+
+    /**
+     * A new node, from the free list if it has one.
+     *
+     * @param digit The digit leading to the node.
+     * @return The index of the new node, with no children or siblings.
+     */
+    private int newNode(int digit) {
+        int n;
+        if (freeHead != 0) {
+            n = freeHead;
+            freeHead = sibling(n);
+            setSibling(n, 0);
+            numFree--;
+        } else {
+            n = numNodes++;
+            if (n >>> CHUNK_BITS == child.length) {
+                int chunks = child.length + 1;
+                child = Arrays.copyOf(child, chunks);
+                sibling = Arrays.copyOf(sibling, chunks);
+                label = Arrays.copyOf(label, chunks);
+                terminal = Arrays.copyOf(terminal, chunks);
+                child[chunks - 1] = new int[CHUNK];
+                sibling[chunks - 1] = new int[CHUNK];
+                label[chunks - 1] = new int[CHUNK];
+                terminal[chunks - 1] = new long[CHUNK / 64];
+            }
+        }
+        label[n >>> CHUNK_BITS][n & MASK] = digit;
+        return n;
+    }
+
+    /**
+     * Puts a chain of nodes on the free list.
+     *
+     * @param n The first node of the chain, each of whose nodes has at most
+     * one child.
+     */
+    private void free(int n) {
+        while (n != 0) {
+            int next = child(n);
+            setChild(n, 0);
+            setTerminal(n, false);
+            setSibling(n, freeHead);
+            freeHead = n;
+            numFree++;
+            n = next;
+        }
+    }
+
+    /**
+     * Does the trie contain an element, given in some form other than T.
+     *
+     * @param <K> The form the element is given in.
+     * @param key The element.
+     * @param codec Gives the digits of key.
+     * @return True if the trie contains key, false otherwise.
+     */
+    public <K> boolean contains(K key, DigitCodec<K> codec) {
+        int n = 0;
+        for (int i = 0, length = codec.length(key); i < length; i++)
+            if ((n = find(n, codec.digit(key, i))) == 0) return false;
+        return isTerminal(n);
+    }
+
+    /**
+     * Does the trie contain this element.
+     *
+     * @param key The element to be searched for.
+     * @return True if the trie contains key, false otherwise.
+     */
+    public boolean contains(T key) {
+        if (codec != null) return contains(key, codec);
+        return contains(map.apply(key), digits);
+    }
+
+    /**
+     * Inserts a key.
+     *
+     * @param <K> The form the key is given in.
+     * @param key The key.
+     * @param codec Gives the digits of key.
+     */
+    private <K> void insert(K key, DigitCodec<K> codec) {
+        int n = 0;
+        for (int i = 0, length = codec.length(key); i < length; i++) {
+            int digit = codec.digit(key, i), prev = 0, c = child(n);
+            while (c != 0 && label(c) < digit) {
+                prev = c;
+                c = sibling(c);
+            }
+            if (c == 0 || label(c) != digit) {
+                int added = newNode(digit);
+                setSibling(added, c);
+                if (prev == 0) setChild(n, added);
+                else setSibling(prev, added);
+                c = added;
+            }
+            n = c;
+        }
+        if (!isTerminal(n)) size++;
+        setTerminal(n, true);
+    }
+
+    /**
+     * Insert an element into the trie.
+     *
+     * @param element The element.
+     */
+    public void insert(T element) {
+        if (codec != null) insert(element, codec);
+        else insert(map.apply(element), digits);
+    }
+
+    /**
+     * inserts a bunch of elements into this trie.
+     *
+     * @param elements The elements to be inserted.
+     */
+    @SafeVarargs
+    public final void insert(T... elements) {
+        for (T e : elements) insert(e);
+    }
+
+    /**
+     * Deletes a key. The chain of nodes below the deepest node on its path
+     * that has to stay, being the root, terminal or branching, is cut off and
+     * freed.
+     *
+     * @param <K> The form the key is given in.
+     * @param key The key.
+     * @param codec Gives the digits of key.
+     */
+    private <K> void delete(K key, DigitCodec<K> codec) {
+        int length = codec.length(key);
+        if (path.length < length + 1) path = new int[length + 1];
+        int n = 0, cut = 0;
+        for (int i = 0; i < length; i++) {
+            int c = child(n);
+            if (n == 0 || isTerminal(n) || sibling(c) != 0) cut = i;
+            if ((n = find(n, codec.digit(key, i))) == 0) return;
+            path[i + 1] = n;
+        }
+        if (!isTerminal(n)) return;
+        setTerminal(n, false);
+        size--;
+        if (child(n) != 0 || n == 0) return;
+
+        int parent = path[cut], doomed = path[cut + 1], c = child(parent);
+        if (c == doomed) setChild(parent, sibling(doomed));
+        else {
+            while (sibling(c) != doomed) c = sibling(c);
+            setSibling(c, sibling(doomed));
+        }
+        setSibling(doomed, 0);
+        free(doomed);
+    }
+
+    /**
+     * Deletes an element from the trie and frees the nodes it no longer
+     * needs.
+     *
+     * @param element The element to be deleted.
+     */
+    public void delete(T element) {
+        if (codec != null) delete(element, codec);
+        else delete(map.apply(element), digits);
+    }
+
+    /**
+     * The number of elements.
+     *
+     * @return The number of elements in the trie.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The number of nodes in use, the root included.
+     *
+     * @return The number of nodes in use.
+     */
+    public int numNodes() {
+        return numNodes - numFree;
+    }
+
+    /**
+     * The bytes taken by the node arrays.
+     *
+     * @return The size of the arrays, in bytes.
+     */
+    public long bytes() {
+        return (long) child.length * (3L * 4 * CHUNK + CHUNK / 8);
+    }
+
+    /**
+     * All the elements with the proffered prefix, the prefix itself included,
+     * in order.
+     *
+     * @param prefix The prefix of the desired elements.
+     * @return All the elements in the trie with the desired prefix.
+     */
+    public Stream<T> all(T prefix) {
+        int[] start = map.apply(prefix);
+        int n = 0;
+        for (int digit : start)
+            if ((n = find(n, digit)) == 0) return Stream.of();
+        return StreamSupport.stream(new Walk(n, start), false)
+                .map(array -> map.inverse(array));
+    }
+
+    /**
+     * All the elements in the trie, in order.
+     *
+     * @return All the elements in the trie.
+     */
+    public Stream<T> all() {
+        return StreamSupport.stream(new Walk(0, new int[0]), false)
+                .map(array -> map.inverse(array));
+    }
+
+    /**
+     * Walks the terminal nodes below a node in order. The path is a stack of
+     * node indices, and each node's digit is the digit at its depth in the
+     * buffer, so moving to a sibling replaces the top of both.
+     */
+    private class Walk extends Spliterators.AbstractSpliterator<int[]> {
+
+        private int[] nodes = new int[16], buffer;
+        private final int start;
+        private int depth;
+
+        /**
+         * Should the walk go down from the top of the path next, rather than
+         * to the top's next sibling.
+         */
+        private boolean descend = true;
+        private boolean pending;
+
+        Walk(int n, int[] prefix) {
+            super(Long.MAX_VALUE, ORDERED | DISTINCT | NONNULL);
+            start = prefix.length;
+            buffer = Arrays.copyOf(prefix, prefix.length + 16);
+            nodes[depth++] = n;
+            pending = isTerminal(n);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super int[]> action) {
+            if (pending) {
+                pending = false;
+                action.accept(Arrays.copyOf(buffer, start));
+                return true;
+            }
+            while (depth > 0) {
+                int n = nodes[depth - 1], next;
+                if (descend && (next = child(n)) != 0) {
+                    if (depth == nodes.length)
+                        nodes = Arrays.copyOf(nodes, depth * 2);
+                    if (start + depth > buffer.length - 1)
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    nodes[depth++] = next;
+                } else if (depth > 1 && (next = sibling(n)) != 0)
+                    nodes[depth - 1] = next;
+                else {
+                    depth--;
+                    descend = false;
+                    continue;
+                }
+                descend = true;
+                buffer[start + depth - 2] = label(next);
+                if (isTerminal(next)) {
+                    action.accept(Arrays.copyOf(buffer, start + depth - 1));
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Compares the heap taken by a Trie and an ArenaTrie of the same words,
+     * and their lookup times.
+     *
+     * @param args Optionally the name of a file with one word per line.
+     * Otherwise made up words are used.
+     * @throws IOException If the file can not be read.
+     */
+    public static void main(String[] args) throws IOException {
+        String[] words = Benchmark.words(args, 1_000_000);
+
+        long before = Benchmark.usedHeap();
+        Trie<String> trie = Trie.wordTrie();
+        trie.insert(words);
+        long trieBytes = Benchmark.usedHeap() - before;
+        double trieNanos = Benchmark.nanosPerOp(words.length,
+                i -> trie.contains(words[i]));
+
+        before = Benchmark.usedHeap();
+        ArenaTrie<String> arena = wordTrie();
+        arena.insert(words);
+        long arenaBytes = Benchmark.usedHeap() - before;
+        double arenaNanos = Benchmark.nanosPerOp(words.length,
+                i -> arena.contains(words[i]));
+
+        System.out.println(arena.size() + " words, " + arena.numNodes()
+                + " nodes");
+        System.out.printf("Trie:      %,d bytes, %.0f ns per lookup%n",
+                trieBytes, trieNanos);
+        System.out.printf("ArenaTrie: %,d bytes, %.0f ns per lookup%n",
+                arenaBytes, arenaNanos);
+        System.out.println(arena.all(words[0].substring(0, 2)).limit(3)
+                .toList());
+    }
+}
@@ -0,0 +1,37 @@
+package dast;
+
+/**
+ * A deterministic automaton over digits, whose states are ints. A trie can
+ * be walked in step with an automaton, skipping every subtree the automaton
+ * can no longer accept anything in.
+ *
+ * @author Dov Neimand
+ */
+public interface Automaton {
+
+    /**
+     * The state before any digit is read.
+     *
+     * @return The start state, or -1 if the automaton accepts nothing at
+     * all.
+     */
+    public int start();
+
+    /**
+     * The state after reading a digit.
+     *
+     * @param state The state before the digit, never a dead state.
+     * @param digit The digit read.
+     * @return The state after the digit, or -1 if nothing that continues
+     * this way can be accepted.
+     */
+    public int step(int state, int digit);
+
+    /**
+     * Is a state accepting.
+     *
+     * @param state The state, never a dead state.
+     * @return True if the digits that lead to state are accepted.
+     */
+    public boolean accepts(int state);
+}
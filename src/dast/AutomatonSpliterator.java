@@ -0,0 +1,127 @@
+package dast;
+
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * Walks the terminal nodes of a trie that an automaton accepts, in order,
+ * lazily. The automaton is run along the path as the walk goes down, and a
+ * child whose digits lead the automaton to a dead state is skipped along
+ * with everything below it. Like TrieSpliterator, the walk keeps an explicit
+ * stack of the nodes on the current path and one reusable buffer of digits.
+ *
+ * @author Dov Neimand
+ */
+class AutomatonSpliterator extends Spliterators.AbstractSpliterator<int[]> {
+
+    private final Automaton automaton;
+
+    /**
+     * The nodes on the current path, and for each the smallest digit of its
+     * children not yet walked, the number of digits leading to it, and the
+     * state of the automaton after reading them.
+     */
+    private TrieNode[] nodes;
+    private int[] from, lengths, states;
+
+    private int[] buffer;
+    private int depth;
+
+    /**
+     * Is the node the walk starts at still to be offered as an element.
+     */
+    private boolean pending;
+
+    /**
+     * The constructor.
+     *
+     * @param root The root of the trie.
+     * @param automaton The automaton whose accepted elements are walked.
+     */
+    public AutomatonSpliterator(TrieNode root, Automaton automaton) {
+        super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.DISTINCT
+                | Spliterator.NONNULL);
+        this.automaton = automaton;
+        nodes = new TrieNode[8];
+        from = new int[8];
+        lengths = new int[8];
+        states = new int[8];
+        buffer = new int[16];
+        int start = automaton.start();
+        if (start < 0) return;
+        push(root, 0, start);
+        pending = root.isTerminal() && automaton.accepts(start);
+    }
+
+    /**
+     * Puts a node on top of the path.
+     *
+     * @param n The node.
+     * @param length The number of digits leading to it.
+     * @param state The state of the automaton after those digits.
+     */
+    private void push(TrieNode n, int length, int state) {
+        if (depth == nodes.length) {
+            nodes = Arrays.copyOf(nodes, depth * 2);
+            from = Arrays.copyOf(from, depth * 2);
+            lengths = Arrays.copyOf(lengths, depth * 2);
+            states = Arrays.copyOf(states, depth * 2);
+        }
+        nodes[depth] = n;
+        from[depth] = 0;
+        lengths[depth] = length;
+        states[depth] = state;
+        depth++;
+    }
+
+    /**
+     * Appends a digit to the buffer.
+     *
+     * @param length The number of digits in the buffer that are in use.
+     * @param digit The digit to be written after them.
+     * @return The number of digits in use after the digit is written.
+     */
+    private int append(int length, int digit) {
+        if (length == buffer.length)
+            buffer = Arrays.copyOf(buffer, length * 2);
+        buffer[length] = digit;
+        return length + 1;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super int[]> action) {
+        if (pending) {
+            pending = false;
+            action.accept(new int[0]);
+            return true;
+        }
+        while (depth > 0) {
+            TrieNode n = nodes[depth - 1];
+            int digit = n.nextDigit(from[depth - 1]);
+            if (digit < 0) {
+                nodes[--depth] = null;
+                continue;
+            }
+            from[depth - 1] = digit + 1;
+
+            int state = automaton.step(states[depth - 1], digit);
+            if (state < 0) continue;
+            TrieNode child = n.child(digit);
+            int length = append(lengths[depth - 1], digit);
+            for (int j = 0; j < child.runLength() && state >= 0; j++) {
+                state = automaton.step(state, child.run(j));
+                length = append(length, child.run(j));
+            }
+            if (state < 0) continue;
+            push(child, length, state);
+
+            if (child.isTerminal() && automaton.accepts(state)) {
+                action.accept(Arrays.copyOf(buffer, length));
+                return true;
+            }
+        }
+        return false;
+    }
+}
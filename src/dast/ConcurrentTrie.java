@@ -0,0 +1,946 @@
+package dast;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import tools.Benchmark;
+
+/**
+ * A trie that many threads can read and write at once without locks, after
+ * the concurrent hash trie (Ctrie) of Prokopec, Bronson, Bagwell and
+ * Odersky, with the hashes replaced by the digits of the keys.
+ *
+ * Each node is an indirection node holding a reference to an immutable main
+ * node, which has the node's terminal flag and its children. An update
+ * copies the one main node it changes and swaps it in with a compare and
+ * set. A node left empty by a delete is entombed, and whoever next passes by
+ * removes it from its parent.
+ *
+ * Snapshots take constant time. Every indirection node belongs to a
+ * generation. Taking a snapshot gives the trie a new root of a new
+ * generation, sharing everything below it with the snapshot. Writers then
+ * copy each old generation node they pass on the way down before changing
+ * anything, so the snapshot never sees their writes. The root is swapped with
+ * a double compare single swap, and main nodes with a generation compare and
+ * swap, so that no write that began before a snapshot can land in it.
+ *
+ * Streams of the elements are taken from a read only snapshot, so they are
+ * consistent no matter what other threads do meanwhile.
+ *
+ * @author Dov Neimand
+ * @param <T> The type of element in the trie.
+ */
+public class ConcurrentTrie<T> {
+
+    private static final AtomicReferenceFieldUpdater<ConcurrentTrie<?>, Object>
+            ROOT = rootUpdater();
+
+    /**
+     * The updater for the root field. The class literal can only name the
+     * raw class, so the updater is cast to the wildcard type once, here.
+     *
+     * @return An updater for the root of any ConcurrentTrie.
+     */
+    @SuppressWarnings("unchecked")
+    private static AtomicReferenceFieldUpdater<ConcurrentTrie<?>, Object>
+            rootUpdater() {
+        AtomicReferenceFieldUpdater<?, Object> updater
+                = AtomicReferenceFieldUpdater.newUpdater(ConcurrentTrie.class,
+                        Object.class, "root");
+        return (AtomicReferenceFieldUpdater<ConcurrentTrie<?>, Object>) updater;
+    }
+
+    /**
+     * What an operation returns when it has to start over from the root.
+     */
+    private static final int RESTART = -1;
+
+    /**
+     * A generation. Only its identity matters.
+     */
+    private static class Gen {
+    }
+
+    /**
+     * What an indirection node points to.
+     */
+    private static abstract class MainNode {
+
+        private static final AtomicReferenceFieldUpdater<MainNode, MainNode> PREV
+                = AtomicReferenceFieldUpdater.newUpdater(MainNode.class,
+                        MainNode.class, "prev");
+
+        /**
+         * While a generation compare and swap that installed this node is
+         * being decided, the node it replaced. Null once it is committed.
+         */
+        volatile MainNode prev;
+
+        /**
+         * Compares and sets prev.
+         *
+         * @param old The expected value.
+         * @param n The new value.
+         * @return True if prev was old and is now n.
+         */
+        boolean casPrev(MainNode old, MainNode n) {
+            return PREV.compareAndSet(this, old, n);
+        }
+    }
+
+    /**
+     * The main node of a node that is in the trie.
+     */
+    private static class CNode extends MainNode {
+
+        final boolean terminal;
+
+        /**
+         * The digits of the children, sorted, and the children.
+         */
+        final int[] keys;
+        final INode[] children;
+
+        /**
+         * The constructor.
+         *
+         * @param terminal Is this node the last digit of an element.
+         * @param keys The digits of the children, sorted.
+         * @param children The children.
+         */
+        CNode(boolean terminal, int[] keys, INode[] children) {
+            this.terminal = terminal;
+            this.keys = keys;
+            this.children = children;
+        }
+
+        /**
+         * The child with the proffered digit.
+         *
+         * @param digit The digit.
+         * @return The child, or null if there is none.
+         */
+        INode child(int digit) {
+            int j = Arrays.binarySearch(keys, digit);
+            return j < 0 ? null : children[j];
+        }
+
+        /**
+         * A copy of this node with another terminal flag.
+         *
+         * @param terminal The terminal flag of the copy.
+         * @return The copy.
+         */
+        CNode withTerminal(boolean terminal) {
+            return new CNode(terminal, keys, children);
+        }
+
+        /**
+         * A copy of this node with a new child.
+         *
+         * @param digit The digit of the new child, which this node must not
+         * have.
+         * @param child The new child.
+         * @return The copy.
+         */
+        CNode inserted(int digit, INode child) {
+            int j = -Arrays.binarySearch(keys, digit) - 1;
+            int[] newKeys = new int[keys.length + 1];
+            INode[] newChildren = new INode[keys.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, j);
+            System.arraycopy(children, 0, newChildren, 0, j);
+            newKeys[j] = digit;
+            newChildren[j] = child;
+            System.arraycopy(keys, j, newKeys, j + 1, keys.length - j);
+            System.arraycopy(children, j, newChildren, j + 1, keys.length - j);
+            return new CNode(terminal, newKeys, newChildren);
+        }
+
+        /**
+         * A copy of this node without one of its children.
+         *
+         * @param digit The digit of the child to leave out.
+         * @return The copy.
+         */
+        CNode removed(int digit) {
+            int j = Arrays.binarySearch(keys, digit);
+            if (j < 0) return this;
+            int[] newKeys = new int[keys.length - 1];
+            INode[] newChildren = new INode[keys.length - 1];
+            System.arraycopy(keys, 0, newKeys, 0, j);
+            System.arraycopy(children, 0, newChildren, 0, j);
+            System.arraycopy(keys, j + 1, newKeys, j, newKeys.length - j);
+            System.arraycopy(children, j + 1, newChildren, j,
+                    newKeys.length - j);
+            return new CNode(terminal, newKeys, newChildren);
+        }
+    }
+
+    /**
+     * The main node of a node that was left empty by a delete and is waiting
+     * to be removed from its parent.
+     */
+    private static class TNode extends MainNode {
+    }
+
+    /**
+     * Marks a generation compare and swap that failed, holding the main node
+     * to roll back to.
+     */
+    private static class FailedNode extends MainNode {
+
+        final MainNode previous;
+
+        FailedNode(MainNode previous) {
+            this.previous = previous;
+        }
+    }
+
+    /**
+     * An indirection node.
+     */
+    private static class INode {
+
+        private static final AtomicReferenceFieldUpdater<INode, MainNode> MAIN
+                = AtomicReferenceFieldUpdater.newUpdater(INode.class,
+                        MainNode.class, "main");
+
+        final Gen gen;
+        volatile MainNode main;
+
+        /**
+         * The constructor.
+         *
+         * @param gen The generation of the node.
+         * @param main Its main node.
+         */
+        INode(Gen gen, MainNode main) {
+            this.gen = gen;
+            this.main = main;
+        }
+
+        /**
+         * Compares and sets the main node.
+         *
+         * @param old The expected main node.
+         * @param n The new main node.
+         * @return True if main was old and is now n.
+         */
+        boolean cas(MainNode old, MainNode n) {
+            return MAIN.compareAndSet(this, old, n);
+        }
+    }
+
+    /**
+     * Describes a swap of the root that only goes through if the old root's
+     * main node is still the expected one.
+     */
+    private static class Descriptor {
+
+        final INode ov, nv;
+        final MainNode expectedMain;
+        volatile boolean committed;
+
+        Descriptor(INode ov, MainNode expectedMain, INode nv) {
+            this.ov = ov;
+            this.expectedMain = expectedMain;
+            this.nv = nv;
+        }
+    }
+
+    private final toBoundedIntArray<T> map;
+
+    /**
+     * The map, if it can hand out digits one at a time, null otherwise.
+     */
+    private final DigitCodec<T> codec;
+
+    /**
+     * Walks the digits of keys the map has already turned into arrays.
+     */
+    private final DigitCodec<int[]> digits;
+
+    private final boolean readOnly;
+
+    /**
+     * The root, an INode, or a Descriptor while the root is being swapped.
+     */
+    private volatile Object root;
+
+    /**
+     * The constructor.
+     *
+     * @param map A one to one function that maps whatever objects you want to
+     * store in the trie to a sequence of integers from 0 to its upper bound.
+     */
+    public ConcurrentTrie(toBoundedIntArray<T> map) {
+        this(map, new INode(new Gen(), new CNode(false, new int[0],
+                new INode[0])), false);
+    }
+
+    /**
+     * A constructor for snapshots.
+     *
+     * @param map The map from elements to digits.
+     * @param root The root.
+     * @param readOnly Is the trie a read only snapshot.
+     */
+    private ConcurrentTrie(toBoundedIntArray<T> map, INode root,
+            boolean readOnly) {
+        this.map = map;
+        this.codec = map instanceof DigitCodec ? (DigitCodec<T>) map : null;
+        this.digits = DigitCodec.array(map.getUpperBound());
+        this.root = root;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * A concurrent trie designed to contain single words, no spaces, of upper
+     * and lower case letter.
+     *
+     * @return A concurrent trie designed to hold single words of upper and
+     * lower case letters.
+     */
+    public static ConcurrentTrie<String> wordTrie() {
+        return new ConcurrentTrie<>(SymbolCodec.letters());
+    }
+
+    /**
+     * Is this trie a read only snapshot.
+     *
+     * @return True if it is, false otherwise.
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Reads a node's main node, first deciding any generation compare and
+     * swap still pending on it.
+     *
+     * @param in The node.
+     * @return Its main node.
+     */
+    private MainNode gcasRead(INode in) {
+        MainNode m = in.main;
+        if (m.prev == null) return m;
+        return gcasComplete(in, m);
+    }
+
+    /**
+     * Decides a pending generation compare and swap. It commits if the
+     * node's generation is still the root's, and rolls back otherwise.
+     *
+     * @param in The node.
+     * @param m The main node that was installed.
+     * @return The main node of in once the swap is decided.
+     */
+    private MainNode gcasComplete(INode in, MainNode m) {
+        while (true) {
+            if (m == null) return null;
+            MainNode prev = m.prev;
+            INode ctr = readRoot(true);
+            if (prev == null) return m;
+
+            if (prev instanceof FailedNode) {
+                FailedNode fn = (FailedNode) prev;
+                if (in.cas(m, fn.previous)) return fn.previous;
+                m = in.main;
+            } else if (ctr.gen == in.gen && !readOnly) {
+                if (m.casPrev(prev, null)) return m;
+            } else {
+                m.casPrev(prev, new FailedNode(prev));
+                m = in.main;
+            }
+        }
+    }
+
+    /**
+     * Swaps a node's main node, but only if the node's generation is still
+     * the root's once the swap is decided.
+     *
+     * @param in The node.
+     * @param old The expected main node.
+     * @param n The new main node.
+     * @return True if the swap went through.
+     */
+    private boolean gcas(INode in, MainNode old, MainNode n) {
+        n.prev = old;
+        if (in.cas(old, n)) {
+            gcasComplete(in, n);
+            return n.prev == null;
+        }
+        return false;
+    }
+
+    /**
+     * Reads the root, first finishing or aborting any swap of it in
+     * progress.
+     *
+     * @param abort Should a swap in progress be aborted rather than
+     * finished.
+     * @return The root.
+     */
+    private INode readRoot(boolean abort) {
+        Object r = root;
+        if (r instanceof INode) return (INode) r;
+        return rdcssComplete(abort);
+    }
+
+    /**
+     * Finishes or aborts a swap of the root in progress.
+     *
+     * @param abort Should the swap be aborted.
+     * @return The root once the swap is done.
+     */
+    private INode rdcssComplete(boolean abort) {
+        while (true) {
+            Object r = root;
+            if (r instanceof INode) return (INode) r;
+            Descriptor d = (Descriptor) r;
+            if (abort) {
+                if (ROOT.compareAndSet(this, d, d.ov)) return d.ov;
+            } else if (gcasRead(d.ov) == d.expectedMain) {
+                if (ROOT.compareAndSet(this, d, d.nv)) {
+                    d.committed = true;
+                    return d.nv;
+                }
+            } else if (ROOT.compareAndSet(this, d, d.ov)) return d.ov;
+        }
+    }
+
+    /**
+     * Swaps the root if it and its main node are as expected.
+     *
+     * @param ov The expected root.
+     * @param expectedMain The expected main node of the root.
+     * @param nv The new root.
+     * @return True if the root was swapped.
+     */
+    private boolean rdcssRoot(INode ov, MainNode expectedMain, INode nv) {
+        Descriptor d = new Descriptor(ov, expectedMain, nv);
+        if (ROOT.compareAndSet(this, ov, d)) {
+            rdcssComplete(false);
+            return d.committed;
+        }
+        return false;
+    }
+
+    /**
+     * A copy of a node in another generation, sharing its main node.
+     *
+     * @param in The node.
+     * @param gen The generation of the copy.
+     * @return The copy.
+     */
+    private INode copyToGen(INode in, Gen gen) {
+        return new INode(gen, gcasRead(in));
+    }
+
+    /**
+     * A copy of a main node whose children are all copied to a generation.
+     *
+     * @param cn The main node.
+     * @param gen The generation.
+     * @return The copy.
+     */
+    private CNode renewed(CNode cn, Gen gen) {
+        INode[] children = new INode[cn.children.length];
+        for (int j = 0; j < children.length; j++)
+            children[j] = copyToGen(cn.children[j], gen);
+        return new CNode(cn.terminal, cn.keys, children);
+    }
+
+    /**
+     * What a main node should become when it might have been left empty.
+     *
+     * @param cn The main node.
+     * @param lev The depth of its node.
+     * @return An entombed node if cn is empty and not the root's, cn
+     * otherwise.
+     */
+    private static MainNode contracted(CNode cn, int lev) {
+        if (lev > 0 && !cn.terminal && cn.keys.length == 0) return new TNode();
+        return cn;
+    }
+
+    /**
+     * Removes the entombed children of a node.
+     *
+     * @param i The node.
+     * @param lev Its depth.
+     */
+    private void clean(INode i, int lev) {
+        MainNode m = gcasRead(i);
+        if (!(m instanceof CNode)) return;
+        CNode cn = (CNode) m, compressed = cn;
+        for (int j = 0; j < cn.keys.length; j++)
+            if (gcasRead(cn.children[j]) instanceof TNode)
+                compressed = compressed.removed(cn.keys[j]);
+        if (compressed != cn) gcas(i, cn, contracted(compressed, lev));
+    }
+
+    /**
+     * Removes an entombed child from its parent.
+     *
+     * @param p The parent.
+     * @param i The child.
+     * @param digit The digit of the child.
+     * @param lev The depth of the parent.
+     * @param startGen The generation the operation started in.
+     */
+    private void cleanParent(INode p, INode i, int digit, int lev,
+            Gen startGen) {
+        while (true) {
+            MainNode m = gcasRead(i), pm = gcasRead(p);
+            if (!(pm instanceof CNode) || !(m instanceof TNode)) return;
+            CNode pcn = (CNode) pm;
+            if (pcn.child(digit) != i) return;
+            if (gcas(p, pcn, contracted(pcn.removed(digit), lev))
+                    || readRoot(false).gen != startGen)
+                return;
+        }
+    }
+
+    /**
+     * A chain of new nodes for the digits of a key from some depth on.
+     *
+     * @param <K> The form the key is given in.
+     * @param key The key.
+     * @param codec Gives the digits of key.
+     * @param length The number of digits in key.
+     * @param lev The depth of the first node in the chain.
+     * @param gen The generation of the new nodes.
+     * @return The first node of the chain.
+     */
+    private static <K> INode chain(K key, DigitCodec<K> codec, int length,
+            int lev, Gen gen) {
+        INode n = new INode(gen, new CNode(true, new int[0], new INode[0]));
+        for (int j = length - 1; j >= lev; j--)
+            n = new INode(gen, new CNode(false, new int[]{codec.digit(key, j)},
+                    new INode[]{n}));
+        return n;
+    }
+
+    /**
+     * Looks a key up below a node.
+     *
+     * @return 1 if the key is there, 0 if not, RESTART if the operation has
+     * to start over.
+     */
+    private <K> int lookup(INode i, K key, DigitCodec<K> codec, int length,
+            int lev, INode parent, Gen startGen) {
+        while (true) {
+            MainNode m = gcasRead(i);
+            if (m instanceof TNode) {
+                if (readOnly) return 0;
+                clean(parent, lev - 1);
+                return RESTART;
+            }
+            CNode cn = (CNode) m;
+            if (lev == length) return cn.terminal ? 1 : 0;
+            INode child = cn.child(codec.digit(key, lev));
+            if (child == null) return 0;
+            if (readOnly || child.gen == startGen) {
+                parent = i;
+                i = child;
+                lev++;
+            } else if (!gcas(i, cn, renewed(cn, startGen))) return RESTART;
+        }
+    }
+
+    /**
+     * Inserts a key below a node.
+     *
+     * @return 1 if the key was added, 0 if it was already there, RESTART if
+     * the operation has to start over.
+     */
+    private <K> int insert(INode i, K key, DigitCodec<K> codec, int length,
+            int lev, INode parent, Gen startGen) {
+        while (true) {
+            MainNode m = gcasRead(i);
+            if (m instanceof TNode) {
+                clean(parent, lev - 1);
+                return RESTART;
+            }
+            CNode cn = (CNode) m;
+            if (lev == length) {
+                if (cn.terminal) return 0;
+                return gcas(i, cn, cn.withTerminal(true)) ? 1 : RESTART;
+            }
+            int digit = codec.digit(key, lev);
+            INode child = cn.child(digit);
+            if (child == null) {
+                CNode n = cn.inserted(digit,
+                        chain(key, codec, length, lev + 1, startGen));
+                return gcas(i, cn, n) ? 1 : RESTART;
+            }
+            if (child.gen == startGen) {
+                parent = i;
+                i = child;
+                lev++;
+            } else if (!gcas(i, cn, renewed(cn, startGen))) return RESTART;
+        }
+    }
+
+    /**
+     * Removes a key below a node, entombing nodes left empty on the way back
+     * up.
+     *
+     * @return 1 if the key was removed, 0 if it was not there, RESTART if
+     * the operation has to start over.
+     */
+    private <K> int remove(INode i, K key, DigitCodec<K> codec, int length,
+            int lev, INode parent, Gen startGen) {
+        MainNode m = gcasRead(i);
+        if (m instanceof TNode) {
+            clean(parent, lev - 1);
+            return RESTART;
+        }
+        CNode cn = (CNode) m;
+        if (lev == length) {
+            if (!cn.terminal) return 0;
+            return gcas(i, cn, contracted(cn.withTerminal(false), lev))
+                    ? 1 : RESTART;
+        }
+        int digit = codec.digit(key, lev);
+        INode child = cn.child(digit);
+        if (child == null) return 0;
+        if (child.gen != startGen) {
+            if (!gcas(i, cn, renewed(cn, startGen))) return RESTART;
+            return remove(i, key, codec, length, lev, parent, startGen);
+        }
+        int removed = remove(child, key, codec, length, lev + 1, i, startGen);
+        if (removed == 1 && gcasRead(child) instanceof TNode)
+            cleanParent(i, child, digit, lev, startGen);
+        return removed;
+    }
+
+    /**
+     * Does the trie contain an element, given in some form other than T.
+     *
+     * @param <K> The form the element is given in.
+     * @param key The element.
+     * @param codec Gives the digits of key.
+     * @return True if the trie contains key, false otherwise.
+     */
+    public <K> boolean contains(K key, DigitCodec<K> codec) {
+        int length = codec.length(key), found;
+        do {
+            INode r = readRoot(false);
+            found = lookup(r, key, codec, length, 0, null, r.gen);
+        } while (found == RESTART);
+        return found == 1;
+    }
+
+    /**
+     * Does the trie contain this element.
+     *
+     * @param key The element to be searched for.
+     * @return True if the trie contains key, false otherwise.
+     */
+    public boolean contains(T key) {
+        if (codec != null) return contains(key, codec);
+        return contains(map.apply(key), digits);
+    }
+
+    /**
+     * Checks that this trie can be written to.
+     */
+    private void checkWritable() {
+        if (readOnly)
+            throw new UnsupportedOperationException("This is a read only "
+                    + "snapshot.");
+    }
+
+    /**
+     * Inserts a key.
+     *
+     * @param <K> The form the key is given in.
+     * @param key The key.
+     * @param codec Gives the digits of key.
+     */
+    private <K> void insert(K key, DigitCodec<K> codec) {
+        checkWritable();
+        int length = codec.length(key), inserted;
+        do {
+            INode r = readRoot(false);
+            inserted = insert(r, key, codec, length, 0, null, r.gen);
+        } while (inserted == RESTART);
+    }
+
+    /**
+     * Insert an element into the trie.
+     *
+     * @param element The element.
+     */
+    public void insert(T element) {
+        if (codec != null) insert(element, codec);
+        else insert(map.apply(element), digits);
+    }
+
+    /**
+     * inserts a bunch of elements into this trie.
+     *
+     * @param elements The elements to be inserted.
+     */
+    @SafeVarargs
+    public final void insert(T... elements) {
+        for (T e : elements) insert(e);
+    }
+
+    /**
+     * Deletes a key.
+     *
+     * @param <K> The form the key is given in.
+     * @param key The key.
+     * @param codec Gives the digits of key.
+     */
+    private <K> void delete(K key, DigitCodec<K> codec) {
+        checkWritable();
+        int length = codec.length(key), removed;
+        do {
+            INode r = readRoot(false);
+            removed = remove(r, key, codec, length, 0, null, r.gen);
+        } while (removed == RESTART);
+    }
+
+    /**
+     * Deletes an element from the trie and cleans up unused space.
+     *
+     * @param element The element to be deleted.
+     */
+    public void delete(T element) {
+        if (codec != null) delete(element, codec);
+        else delete(map.apply(element), digits);
+    }
+
+    /**
+     * A snapshot of this trie that can be written to independently of it.
+     * Takes constant time; the two tries share nodes until either writes.
+     *
+     * @return A snapshot of this trie.
+     */
+    public ConcurrentTrie<T> snapshot() {
+        while (true) {
+            INode r = readRoot(false);
+            MainNode expected = gcasRead(r);
+            if (rdcssRoot(r, expected, copyToGen(r, new Gen())))
+                return new ConcurrentTrie<>(map, copyToGen(r, new Gen()),
+                        readOnly);
+        }
+    }
+
+    /**
+     * A snapshot of this trie that can only be read. Takes constant time.
+     *
+     * @return A read only snapshot of this trie.
+     */
+    public ConcurrentTrie<T> readOnlySnapshot() {
+        if (readOnly) return this;
+        while (true) {
+            INode r = readRoot(false);
+            MainNode expected = gcasRead(r);
+            if (rdcssRoot(r, expected, copyToGen(r, new Gen())))
+                return new ConcurrentTrie<>(map, r, true);
+        }
+    }
+
+    /**
+     * All the elements in the trie with the proffered prefix, in order, as
+     * they were when this method was called.
+     *
+     * @param prefix The prefix of the desired elements.
+     * @return All the elements in the trie with the desired prefix.
+     */
+    public Stream<T> all(T prefix) {
+        ConcurrentTrie<T> snapshot = readOnlySnapshot();
+        int[] path = map.apply(prefix);
+        INode n = snapshot.readRoot(false);
+        for (int digit : path) {
+            MainNode m = snapshot.gcasRead(n);
+            if (!(m instanceof CNode)) return Stream.of();
+            if ((n = ((CNode) m).child(digit)) == null) return Stream.of();
+        }
+        return StreamSupport.stream(snapshot.new Walk(n, path), false)
+                .map(array -> map.inverse(array));
+    }
+
+    /**
+     * All the elements in the trie, in order, as they were when this method
+     * was called.
+     *
+     * @return All the elements in the trie.
+     */
+    public Stream<T> all() {
+        ConcurrentTrie<T> snapshot = readOnlySnapshot();
+        return StreamSupport.stream(
+                snapshot.new Walk(snapshot.readRoot(false), new int[0]), false)
+                .map(array -> map.inverse(array));
+    }
+
+    /**
+     * Walks the terminal nodes below a node of a read only snapshot in order,
+     * with an explicit stack and one reusable digit buffer.
+     */
+    private class Walk extends Spliterators.AbstractSpliterator<int[]> {
+
+        /**
+         * The main nodes on the current path and, for each, the index of its
+         * next child to walk.
+         */
+        private CNode[] nodes;
+        private int[] next;
+
+        private int[] buffer;
+        private final int start;
+        private int depth;
+        private boolean pending;
+
+        /**
+         * The constructor.
+         *
+         * @param in The node the walk starts at.
+         * @param prefix The digits leading to it.
+         */
+        Walk(INode in, int[] prefix) {
+            super(Long.MAX_VALUE, ORDERED | DISTINCT | NONNULL);
+            nodes = new CNode[8];
+            next = new int[8];
+            buffer = Arrays.copyOf(prefix, prefix.length + 8);
+            start = prefix.length;
+            MainNode m = gcasRead(in);
+            if (m instanceof CNode) {
+                nodes[depth++] = (CNode) m;
+                pending = ((CNode) m).terminal;
+            }
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super int[]> action) {
+            if (pending) {
+                pending = false;
+                action.accept(Arrays.copyOf(buffer, start));
+                return true;
+            }
+            while (depth > 0) {
+                CNode cn = nodes[depth - 1];
+                int j = next[depth - 1]++;
+                if (j == cn.keys.length) {
+                    nodes[--depth] = null;
+                    continue;
+                }
+                MainNode m = gcasRead(cn.children[j]);
+                if (!(m instanceof CNode)) continue;
+
+                int length = start + depth - 1;
+                if (length == buffer.length)
+                    buffer = Arrays.copyOf(buffer, length * 2);
+                buffer[length] = cn.keys[j];
+                if (depth == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, depth * 2);
+                    next = Arrays.copyOf(next, depth * 2);
+                }
+                nodes[depth] = (CNode) m;
+                next[depth++] = 0;
+
+                if (((CNode) m).terminal) {
+                    action.accept(Arrays.copyOf(buffer, length + 1));
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Measures throughput under contention. Each thread runs a mix of 80%
+     * lookups, 10% inserts and 10% deletes on words drawn from one list, on a
+     * ConcurrentTrie and, for comparison, on a Trie behind a lock.
+     *
+     * @param args Optionally the name of a file with one word per line.
+     * Otherwise made up words are used.
+     * @throws IOException If the file can not be read.
+     * @throws InterruptedException If interrupted while waiting for the
+     * threads.
+     */
+    public static void main(String[] args) throws IOException,
+            InterruptedException {
+        String[] words = Benchmark.words(args, 200_000);
+        int opsPerThread = 1_000_000;
+
+        for (int threads : new int[]{1, 2, 4, 8}) {
+            ConcurrentTrie<String> concurrent = wordTrie();
+            Trie<String> locked = Trie.wordTrie();
+            for (int i = 0; i < words.length; i += 2) {
+                concurrent.insert(words[i]);
+                locked.insert(words[i]);
+            }
+
+            double concurrentOps = run(threads, opsPerThread, words,
+                    concurrent::contains, concurrent::insert,
+                    concurrent::delete);
+            double lockedOps = run(threads, opsPerThread, words,
+                    w -> {
+                        synchronized (locked) {
+                            return locked.contains(w);
+                        }
+                    },
+                    w -> {
+                        synchronized (locked) {
+                            locked.insert(w);
+                        }
+                    },
+                    w -> {
+                        synchronized (locked) {
+                            locked.delete(w);
+                        }
+                    });
+            System.out.printf("%d threads: ConcurrentTrie %,.0f ops/s, "
+                    + "locked Trie %,.0f ops/s%n", threads, concurrentOps,
+                    lockedOps);
+        }
+
+        ConcurrentTrie<String> trie = wordTrie();
+        trie.insert("ham", "hat", "hats");
+        ConcurrentTrie<String> snapshot = trie.readOnlySnapshot();
+        trie.delete("hat");
+        trie.insert("bob");
+        System.out.println(trie.all().toList() + " " + snapshot.all().toList());
+    }
+
+    /**
+     * Runs a mix of operations on several threads.
+     *
+     * @return The number of operations per second over all the threads.
+     */
+    private static double run(int threads, int opsPerThread, String[] words,
+            Predicate<String> contains,
+            Consumer<String> insert, Consumer<String> delete)
+            throws InterruptedException {
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            long seed = t;
+            workers[t] = new Thread(() -> {
+                Random rand = new Random(seed);
+                for (int i = 0; i < opsPerThread; i++) {
+                    String w = words[rand.nextInt(words.length)];
+                    int op = rand.nextInt(10);
+                    if (op == 0) insert.accept(w);
+                    else if (op == 1) delete.accept(w);
+                    else contains.test(w);
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread w : workers) w.start();
+        for (Thread w : workers) w.join();
+        return 1e9 * threads * opsPerThread / (System.nanoTime() - start);
+    }
+}
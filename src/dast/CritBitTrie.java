@@ -0,0 +1,533 @@
+package dast;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import tools.Benchmark;
+
+/**
+ * A binary trie over the bits of longs, most significant bit first, that
+ * maps prefixes of longs to values, as a routing table maps address prefixes
+ * to routes. A prefix is given by its bits, left aligned in a long, and its
+ * length, from 0 to 64; the bits after the length are ignored. A full long is
+ * a prefix of length 64.
+ *
+ * Chains of single children are collapsed, so every node without a value is
+ * a critical bit node where its two subtrees first differ, and there are
+ * fewer than two nodes per value. Keys are kept as longs throughout, so
+ * nothing is allocated to look a key up.
+ *
+ * Prefixes are ordered by their bits as unsigned numbers, a prefix coming
+ * right before the prefixes that extend it. An int, such as an IPv4 address,
+ * goes in the upper half of a long with intKey, and signed longs keep their
+ * order if they go in through signedKey.
+ *
+ * @author Dov Neimand
+ * @param <V> The type of the values.
+ */
+public class CritBitTrie<V> {
+
+    /**
+     * A node, which is also how a prefix and its value are handed out.
+     *
+     * @param <V> The type of the value.
+     */
+    public static final class Entry<V> {
+
+        private final long bits;
+        private final int length;
+        private Entry<V> zero, one;
+        private boolean hasValue;
+        private V value;
+
+        /**
+         * The constructor.
+         *
+         * @param bits The bits of the prefix, zero after the length.
+         * @param length The length of the prefix.
+         */
+        private Entry(long bits, int length) {
+            this.bits = bits;
+            this.length = length;
+        }
+
+        /**
+         * The bits of the prefix, left aligned, zero after its length.
+         *
+         * @return The bits of the prefix.
+         */
+        public long bits() {
+            return bits;
+        }
+
+        /**
+         * The number of bits in the prefix.
+         *
+         * @return The length of the prefix.
+         */
+        public int length() {
+            return length;
+        }
+
+        /**
+         * The value of the prefix.
+         *
+         * @return The value the prefix maps to.
+         */
+        public V value() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return Long.toHexString(bits) + "/" + length + "=" + value;
+        }
+    }
+
+    private Entry<V> root;
+    private int size;
+
+    /**
+     * The first bits of a long.
+     *
+     * @param bits The long.
+     * @param length The number of bits to keep.
+     * @return The long with every bit after length cleared.
+     */
+    private static long mask(long bits, int length) {
+        return length == 0 ? 0 : bits & -1L << (64 - length);
+    }
+
+    /**
+     * A bit of a long.
+     *
+     * @param bits The long.
+     * @param i The index of the bit, 0 being the most significant.
+     * @return The bit, 0 or 1.
+     */
+    private static int bit(long bits, int i) {
+        return (int) (bits >>> (63 - i)) & 1;
+    }
+
+    /**
+     * The length of the longest common prefix of two prefixes.
+     *
+     * @return The number of leading bits the two prefixes share.
+     */
+    private static int common(long a, int aLength, long b, int bLength) {
+        return Math.min(Math.min(aLength, bLength),
+                Long.numberOfLeadingZeros(a ^ b));
+    }
+
+    /**
+     * Checks a prefix length.
+     *
+     * @param length The length.
+     */
+    private static void checkLength(int length) {
+        if (length < 0 || length > 64)
+            throw new IllegalArgumentException("A prefix has from 0 to 64 "
+                    + "bits, not " + length + ".");
+    }
+
+    /**
+     * An int, in the upper half of a long, where its prefixes are the
+     * prefixes of the long of up to 32 bits.
+     *
+     * @param key The int.
+     * @return The int's bits, left aligned in a long.
+     */
+    public static long intKey(int key) {
+        return (long) key << 32;
+    }
+
+    /**
+     * A long whose bits, compared as unsigned, are in the order of the
+     * signed longs.
+     *
+     * @param key The long.
+     * @return The long with its sign bit flipped.
+     */
+    public static long signedKey(long key) {
+        return key ^ Long.MIN_VALUE;
+    }
+
+    /**
+     * Maps a prefix to a value.
+     *
+     * @param bits The bits of the prefix, left aligned.
+     * @param length The number of bits in the prefix.
+     * @param value The value.
+     * @return The value the prefix used to map to, or null if it had none.
+     */
+    public V put(long bits, int length, V value) {
+        checkLength(length);
+        bits = mask(bits, length);
+        Entry<V> parent = null, n = root;
+        while (n != null) {
+            int common = common(n.bits, n.length, bits, length);
+            if (common < n.length) {
+                Entry<V> split;
+                if (common == length) {
+                    split = new Entry<>(bits, length);
+                    split.hasValue = true;
+                    split.value = value;
+                    size++;
+                } else {
+                    split = new Entry<>(mask(bits, common), common);
+                    setChild(split, bits, newLeaf(bits, length, value));
+                }
+                setChild(split, n.bits, n);
+                replace(parent, n, split);
+                return null;
+            }
+            if (n.length == length) {
+                V old = n.value;
+                if (!n.hasValue) size++;
+                n.hasValue = true;
+                n.value = value;
+                return old;
+            }
+            parent = n;
+            n = bit(bits, n.length) == 0 ? n.zero : n.one;
+        }
+        replace(parent, null, newLeaf(bits, length, value));
+        return null;
+    }
+
+    /**
+     * Maps a long to a value.
+     *
+     * @param key The long.
+     * @param value The value.
+     * @return The value the long used to map to, or null if it had none.
+     */
+    public V put(long key, V value) {
+        return put(key, 64, value);
+    }
+
+    /**
+     * A new node with a value.
+     *
+     * @return The new node.
+     */
+    private Entry<V> newLeaf(long bits, int length, V value) {
+        Entry<V> leaf = new Entry<>(bits, length);
+        leaf.hasValue = true;
+        leaf.value = value;
+        size++;
+        return leaf;
+    }
+
+    /**
+     * Puts a node under a parent, on the side given by the parent's next bit
+     * of the proffered bits.
+     *
+     * @param parent The parent.
+     * @param bits Bits extending the parent's prefix.
+     * @param child The child.
+     */
+    private static <V> void setChild(Entry<V> parent, long bits,
+            Entry<V> child) {
+        if (bit(bits, parent.length) == 0) parent.zero = child;
+        else parent.one = child;
+    }
+
+    /**
+     * Puts a node in the place of another.
+     *
+     * @param parent The parent of the old node, or null if it is the root.
+     * @param old The old node.
+     * @param n The new node, or null to remove the old one.
+     */
+    private void replace(Entry<V> parent, Entry<V> old, Entry<V> n) {
+        if (parent == null) root = n;
+        else if (parent.zero == old
+                && (old != null || bit(n.bits, parent.length) == 0))
+            parent.zero = n;
+        else parent.one = n;
+    }
+
+    /**
+     * The node of a prefix.
+     *
+     * @return The node with exactly the proffered prefix, or null if there is
+     * none.
+     */
+    private Entry<V> find(long bits, int length) {
+        bits = mask(bits, length);
+        Entry<V> n = root;
+        while (n != null && n.length < length && n.bits == mask(bits, n.length))
+            n = bit(bits, n.length) == 0 ? n.zero : n.one;
+        return n != null && n.length == length && n.bits == bits ? n : null;
+    }
+
+    /**
+     * The value of a prefix.
+     *
+     * @param bits The bits of the prefix, left aligned.
+     * @param length The number of bits in the prefix.
+     * @return The value the prefix maps to, or null if it maps to none.
+     */
+    public V get(long bits, int length) {
+        checkLength(length);
+        Entry<V> n = find(bits, length);
+        return n == null ? null : n.value;
+    }
+
+    /**
+     * Does a prefix map to a value.
+     *
+     * @param bits The bits of the prefix, left aligned.
+     * @param length The number of bits in the prefix.
+     * @return True if it does, false otherwise.
+     */
+    public boolean containsKey(long bits, int length) {
+        checkLength(length);
+        Entry<V> n = find(bits, length);
+        return n != null && n.hasValue;
+    }
+
+    /**
+     * Removes a prefix and its value, collapsing any node left with neither a
+     * value nor two children.
+     *
+     * @param bits The bits of the prefix, left aligned.
+     * @param length The number of bits in the prefix.
+     * @return The value the prefix mapped to, or null if it had none.
+     */
+    public V remove(long bits, int length) {
+        checkLength(length);
+        bits = mask(bits, length);
+        Entry<V> grandparent = null, parent = null, n = root;
+        while (n != null && n.length < length && n.bits == mask(bits, n.length)) {
+            grandparent = parent;
+            parent = n;
+            n = bit(bits, n.length) == 0 ? n.zero : n.one;
+        }
+        if (n == null || n.length != length || n.bits != bits || !n.hasValue)
+            return null;
+
+        V old = n.value;
+        n.hasValue = false;
+        n.value = null;
+        size--;
+        if (n.zero != null && n.one != null) return old;
+
+        Entry<V> only = n.zero != null ? n.zero : n.one;
+        replace(parent, n, only);
+        if (only == null && parent != null && !parent.hasValue)
+            replace(grandparent, parent,
+                    parent.zero != null ? parent.zero : parent.one);
+        return old;
+    }
+
+    /**
+     * The value of the longest prefix of a key that has one, as a router
+     * picks a route for an address.
+     *
+     * @param key The key.
+     * @return The value of the longest prefix of key that maps to a value,
+     * or null if none does.
+     */
+    public V longestPrefixMatch(long key) {
+        V best = null;
+        Entry<V> n = root;
+        while (n != null && n.bits == mask(key, n.length)) {
+            if (n.hasValue) best = n.value;
+            if (n.length == 64) break;
+            n = bit(key, n.length) == 0 ? n.zero : n.one;
+        }
+        return best;
+    }
+
+    /**
+     * The number of prefixes with values.
+     *
+     * @return The number of prefixes in the trie.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The first prefix with a value at or below a node.
+     *
+     * @param n The node.
+     * @return The first entry at or below n, or null if n is null.
+     */
+    private static <V> Entry<V> first(Entry<V> n) {
+        while (n != null && !n.hasValue) n = n.zero != null ? n.zero : n.one;
+        return n;
+    }
+
+    /**
+     * The first entry at or after, or just after, a prefix.
+     *
+     * @param n The node whose subtree is searched.
+     * @param inclusive Can the prefix itself be the answer.
+     * @return The entry, or null if there is none in n's subtree.
+     */
+    private static <V> Entry<V> ceiling(Entry<V> n, long bits, int length,
+            boolean inclusive) {
+        if (n == null) return null;
+        int common = common(n.bits, n.length, bits, length);
+        if (common < Math.min(n.length, length))
+            return bit(n.bits, common) > bit(bits, common) ? first(n) : null;
+        if (n.length > length) return first(n);
+        if (n.length == length) {
+            if (inclusive && n.hasValue) return n;
+            Entry<V> below = first(n.zero);
+            return below != null ? below : first(n.one);
+        }
+        if (bit(bits, n.length) == 1)
+            return ceiling(n.one, bits, length, inclusive);
+        Entry<V> found = ceiling(n.zero, bits, length, inclusive);
+        return found != null ? found : first(n.one);
+    }
+
+    /**
+     * The first entry at or after a prefix, in the order of the trie.
+     *
+     * @param bits The bits of the prefix, left aligned.
+     * @param length The number of bits in the prefix.
+     * @return The entry, or null if every entry comes before the prefix.
+     */
+    public Entry<V> ceiling(long bits, int length) {
+        checkLength(length);
+        return ceiling(root, mask(bits, length), length, true);
+    }
+
+    /**
+     * The first entry after a prefix, in the order of the trie.
+     *
+     * @param bits The bits of the prefix, left aligned.
+     * @param length The number of bits in the prefix.
+     * @return The entry, or null if no entry comes after the prefix.
+     */
+    public Entry<V> higher(long bits, int length) {
+        checkLength(length);
+        return ceiling(root, mask(bits, length), length, false);
+    }
+
+    /**
+     * The first entry at or after a long.
+     *
+     * @param key The long.
+     * @return The entry, or null if every entry comes before the long.
+     */
+    public Entry<V> ceiling(long key) {
+        return ceiling(key, 64);
+    }
+
+    /**
+     * The first entry after a long.
+     *
+     * @param key The long.
+     * @return The entry, or null if no entry comes after the long.
+     */
+    public Entry<V> higher(long key) {
+        return higher(key, 64);
+    }
+
+    /**
+     * All the entries in order.
+     *
+     * @return All the entries.
+     */
+    public Stream<Entry<V>> all() {
+        return StreamSupport.stream(new Walk<>(root), false);
+    }
+
+    /**
+     * All the entries whose prefixes start with a prefix, the prefix itself
+     * included, in order.
+     *
+     * @param bits The bits of the prefix, left aligned.
+     * @param length The number of bits in the prefix.
+     * @return The entries starting with the prefix.
+     */
+    public Stream<Entry<V>> all(long bits, int length) {
+        checkLength(length);
+        bits = mask(bits, length);
+        Entry<V> n = root;
+        while (n != null && n.length < length && n.bits == mask(bits, n.length))
+            n = bit(bits, n.length) == 0 ? n.zero : n.one;
+        if (n == null || mask(n.bits, length) != bits) return Stream.of();
+        return StreamSupport.stream(new Walk<>(n), false);
+    }
+
+    /**
+     * Walks the entries below a node in order, with an explicit stack. At
+     * most 65 nodes are ever on it.
+     */
+    private static class Walk<V> extends
+            Spliterators.AbstractSpliterator<Entry<V>> {
+
+        private final ArrayDeque<Entry<V>> stack = new ArrayDeque<>(65);
+
+        Walk(Entry<V> start) {
+            super(Long.MAX_VALUE, ORDERED | DISTINCT | NONNULL);
+            if (start != null) stack.push(start);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Entry<V>> action) {
+            while (!stack.isEmpty()) {
+                Entry<V> n = stack.pop();
+                if (n.one != null) stack.push(n.one);
+                if (n.zero != null) stack.push(n.zero);
+                if (n.hasValue) {
+                    action.accept(n);
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * An IPv4 address or prefix, written the usual way, as an int.
+     *
+     * @param address The address, as four numbers separated by dots.
+     * @return The address as an int.
+     */
+    private static int ipv4(String address) {
+        int ip = 0;
+        for (String part : address.split("\\."))
+            ip = ip << 8 | Integer.parseInt(part);
+        return ip;
+    }
+
+    /**
+     * Routes some addresses, then measures longest prefix matches on a
+     * table of random routes.
+     *
+     * @param args Not used.
+     */
+    public static void main(String[] args) {
+        CritBitTrie<String> routes = new CritBitTrie<>();
+        routes.put(intKey(ipv4("0.0.0.0")), 0, "default");
+        routes.put(intKey(ipv4("10.0.0.0")), 8, "internal");
+        routes.put(intKey(ipv4("10.1.0.0")), 16, "lab");
+        routes.put(intKey(ipv4("192.168.1.0")), 24, "home");
+        for (String address : new String[]{"10.1.2.3", "10.2.0.1",
+            "192.168.1.7", "8.8.8.8"})
+            System.out.println(address + " -> "
+                    + routes.longestPrefixMatch(intKey(ipv4(address))));
+        System.out.println(routes.all().toList());
+        System.out.println(routes.higher(intKey(ipv4("10.0.0.0")), 8));
+
+        Random rand = new Random(1);
+        CritBitTrie<Integer> table = new CritBitTrie<>();
+        for (int i = 0; i < 1_000_000; i++)
+            table.put(intKey(rand.nextInt()), 8 + rand.nextInt(25), i);
+        long[] addresses = rand.longs(1 << 20).map(a -> a << 32).toArray();
+        System.out.printf("%,d routes, %.0f ns per longest prefix match%n",
+                table.size(), Benchmark.nanosPerOp(addresses.length,
+                        i -> table.longestPrefixMatch(addresses[i]) != null));
+    }
+}
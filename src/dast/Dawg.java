@@ -0,0 +1,379 @@
+package dast;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import tools.Benchmark;
+
+/**
+ * A directed acyclic word graph: the minimal automaton accepting a fixed set
+ * of elements. Like a trie it shares common prefixes, and it also shares
+ * common suffixes, since any two subtrees that would accept the same endings
+ * are one node.
+ *
+ * It is built incrementally from elements in sorted order, after Daciuk,
+ * Mihov, Watson and Watson. Each element only adds the part of its path that
+ * differs from the element before it. Once an element is added, the part of
+ * the path of the element before it that it does not share will never change
+ * again, so those nodes are merged, deepest first, with an equivalent node
+ * from a register of the nodes finished so far, or added to it.
+ *
+ * @author Dov Neimand
+ * @param <T> The type of element in the graph.
+ */
+public class Dawg<T> {
+
+    private final toBoundedIntArray<T> map;
+    private final DawgNode root;
+    private final int numNodes;
+
+    /**
+     * The constructor.
+     *
+     * @param map A one to one function that maps the elements to a sequence
+     * of integers from 0 to its upper bound.
+     * @param root The root of the finished graph.
+     * @param numNodes The number of nodes in the graph.
+     */
+    private Dawg(toBoundedIntArray<T> map, DawgNode root, int numNodes) {
+        this.map = map;
+        this.root = root;
+        this.numNodes = numNodes;
+    }
+
+    /**
+     * Builds the graph of some elements.
+     *
+     * @param <T> The type of the elements.
+     * @param map A one to one function that maps the elements to a sequence
+     * of integers from 0 to its upper bound.
+     * @param sorted The elements, sorted by their digits with shorter
+     * sequences first where one is a prefix of the other, as Trie.all gives
+     * them. Repeats are ignored.
+     * @return The graph accepting exactly the elements.
+     * @throws IllegalArgumentException If the elements are out of order.
+     */
+    public static <T> Dawg<T> of(toBoundedIntArray<T> map, Stream<T> sorted) {
+        Builder builder = new Builder();
+        sorted.forEachOrdered(e -> builder.add(map.apply(e)));
+        return new Dawg<>(map, builder.root, builder.finish());
+    }
+
+    /**
+     * Builds the graph of the elements of a trie.
+     *
+     * @param <T> The type of the elements.
+     * @param trie The trie.
+     * @return The graph accepting exactly the elements of the trie.
+     */
+    public static <T> Dawg<T> of(Trie<T> trie) {
+        return of(trie.getMap(), trie.all());
+    }
+
+    /**
+     * Builds the graph one element at a time.
+     */
+    private static class Builder {
+
+        final DawgNode root = new DawgNode();
+
+        /**
+         * The finished nodes, each mapped to itself.
+         */
+        final HashMap<DawgNode, DawgNode> register = new HashMap<>();
+
+        /**
+         * The digits of the last element added and the nodes on its path,
+         * none of which are finished.
+         */
+        int[] last = null;
+        DawgNode[] path = {root};
+
+        /**
+         * Adds an element.
+         *
+         * @param digits The digits of the element, which must come after the
+         * last element's.
+         */
+        void add(int[] digits) {
+            int common = 0;
+            if (last != null) {
+                int order = Arrays.compare(last, digits);
+                if (order == 0) return;
+                if (order > 0)
+                    throw new IllegalArgumentException("The elements are "
+                            + "not sorted: " + Arrays.toString(digits)
+                            + " comes after " + Arrays.toString(last));
+                common = Arrays.mismatch(last, digits);
+                finish(common);
+            }
+
+            if (path.length < digits.length + 1)
+                path = Arrays.copyOf(path, digits.length + 1);
+            for (int i = common; i < digits.length; i++) {
+                DawgNode child = new DawgNode();
+                path[i].append(digits[i], child);
+                path[i + 1] = child;
+            }
+            path[digits.length].terminal = true;
+            last = digits;
+        }
+
+        /**
+         * Finishes the nodes on the last element's path below some depth,
+         * deepest first, replacing each with an equivalent finished node if
+         * there is one.
+         *
+         * @param depth The depth below which nodes are finished.
+         * @return The number of finished nodes, the root included.
+         */
+        int finish(int depth) {
+            for (int d = last == null ? 0 : last.length; d > depth; d--) {
+                DawgNode same = register.putIfAbsent(path[d], path[d]);
+                if (same != null) path[d - 1].replaceLast(same);
+                path[d] = null;
+            }
+            return register.size() + 1;
+        }
+
+        /**
+         * Finishes the whole graph.
+         *
+         * @return The number of nodes in the graph.
+         */
+        int finish() {
+            return finish(0);
+        }
+    }
+
+    /**
+     * The node at the end of a path of digits.
+     *
+     * @param digits The digits.
+     * @return The node, or null if there is none.
+     */
+    private DawgNode find(int[] digits) {
+        DawgNode n = root;
+        for (int i = 0; i < digits.length && n != null; i++)
+            n = n.child(digits[i]);
+        return n;
+    }
+
+    /**
+     * Does the graph contain this element.
+     *
+     * @param element The element to be searched for.
+     * @return True if the graph contains element, false otherwise.
+     */
+    public boolean contains(T element) {
+        DawgNode n = find(map.apply(element));
+        return n != null && n.terminal;
+    }
+
+    /**
+     * All the elements with the proffered prefix, the prefix itself included,
+     * in order.
+     *
+     * @param prefix The prefix of the desired elements.
+     * @return All the elements in the graph with the desired prefix.
+     */
+    public Stream<T> all(T prefix) {
+        int[] path = map.apply(prefix);
+        DawgNode n = find(path);
+        if (n == null) return Stream.of();
+        return StreamSupport.stream(new Walk(n, path), false)
+                .map(array -> map.inverse(array));
+    }
+
+    /**
+     * All the elements, in order.
+     *
+     * @return All the elements in the graph.
+     */
+    public Stream<T> all() {
+        return StreamSupport.stream(new Walk(root, new int[0]), false)
+                .map(array -> map.inverse(array));
+    }
+
+    /**
+     * The number of nodes in the graph.
+     *
+     * @return The number of nodes.
+     */
+    public int numNodes() {
+        return numNodes;
+    }
+
+    /**
+     * Walks the terminal nodes below a node in order, with an explicit stack
+     * and one reusable digit buffer. A shared node is walked once for every
+     * path that leads to it.
+     */
+    private static class Walk extends Spliterators.AbstractSpliterator<int[]> {
+
+        private DawgNode[] nodes;
+        private int[] next;
+        private int[] buffer;
+        private final int start;
+        private int depth;
+        private boolean pending;
+
+        /**
+         * The constructor.
+         *
+         * @param n The node the walk starts at.
+         * @param prefix The digits leading to it.
+         */
+        Walk(DawgNode n, int[] prefix) {
+            super(Long.MAX_VALUE, ORDERED | DISTINCT | NONNULL);
+            nodes = new DawgNode[8];
+            next = new int[8];
+            buffer = Arrays.copyOf(prefix, prefix.length + 8);
+            start = prefix.length;
+            nodes[depth++] = n;
+            pending = n.terminal;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super int[]> action) {
+            if (pending) {
+                pending = false;
+                action.accept(Arrays.copyOf(buffer, start));
+                return true;
+            }
+            while (depth > 0) {
+                DawgNode n = nodes[depth - 1];
+                int j = next[depth - 1]++;
+                if (j == n.size) {
+                    nodes[--depth] = null;
+                    continue;
+                }
+                int length = start + depth - 1;
+                if (length == buffer.length)
+                    buffer = Arrays.copyOf(buffer, length * 2);
+                buffer[length] = n.labels[j];
+                if (depth == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, depth * 2);
+                    next = Arrays.copyOf(next, depth * 2);
+                }
+                DawgNode child = n.targets[j];
+                nodes[depth] = child;
+                next[depth++] = 0;
+                if (child.terminal) {
+                    action.accept(Arrays.copyOf(buffer, length + 1));
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Counts the nodes of a trie.
+     *
+     * @param n The root of the trie.
+     * @return The number of nodes at or below n.
+     */
+    private static int countNodes(TrieNode n) {
+        int count = 1;
+        for (int d = n.nextDigit(0); d >= 0; d = n.nextDigit(d + 1))
+            count += countNodes(n.child(d));
+        return count;
+    }
+
+    /**
+     * Compares the number of nodes in a trie and a graph of the same words.
+     *
+     * @param args Optionally the name of a file with one word per line.
+     * Otherwise made up words are used.
+     * @throws IOException If the file can not be read.
+     */
+    public static void main(String[] args) throws IOException {
+        String[] words = Benchmark.words(args, 1_000_000);
+        Trie<String> trie = Trie.wordTrie();
+        trie.insert(words);
+        long start = System.nanoTime();
+        Dawg<String> dawg = of(trie);
+        long time = System.nanoTime() - start;
+        System.out.printf("trie %,d nodes, dawg %,d nodes, built in %d ms%n",
+                countNodes(trie.root()), dawg.numNodes(), time / 1_000_000);
+
+        Dawg<String> small = of(SymbolCodec.letters(),
+                Stream.of("cat", "cats", "hat", "hats", "tap", "taps"));
+        System.out.println(small.numNodes() + " " + small.all("ha").toList()
+                + " " + small.contains("cat") + " " + small.contains("ca"));
+    }
+}
+
+/**
+ * A node of a directed acyclic word graph. Its children are kept in the
+ * order they are added, which is sorted since the elements come sorted. Two
+ * finished nodes are equal if they are both terminal or both not and have
+ * the same children under the same digits.
+ */
+class DawgNode {
+
+    boolean terminal;
+    int[] labels = new int[0];
+    DawgNode[] targets = new DawgNode[0];
+    int size;
+
+    /**
+     * Adds a child after all the others.
+     *
+     * @param label The digit of the child, larger than all the others.
+     * @param child The child.
+     */
+    void append(int label, DawgNode child) {
+        if (size == labels.length) {
+            labels = Arrays.copyOf(labels, Math.max(2, size * 2));
+            targets = Arrays.copyOf(targets, labels.length);
+        }
+        labels[size] = label;
+        targets[size++] = child;
+    }
+
+    /**
+     * Replaces the last child.
+     *
+     * @param child The child to take its place.
+     */
+    void replaceLast(DawgNode child) {
+        targets[size - 1] = child;
+    }
+
+    /**
+     * The child with the proffered digit.
+     *
+     * @param digit The digit.
+     * @return The child, or null if there is none.
+     */
+    DawgNode child(int digit) {
+        int j = Arrays.binarySearch(labels, 0, size, digit);
+        return j < 0 ? null : targets[j];
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof DawgNode)) return false;
+        DawgNode other = (DawgNode) o;
+        if (terminal != other.terminal || size != other.size) return false;
+        for (int j = 0; j < size; j++)
+            if (labels[j] != other.labels[j] || targets[j] != other.targets[j])
+                return false;
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = terminal ? 1 : 0;
+        for (int j = 0; j < size; j++)
+            hash = 31 * (31 * hash + labels[j])
+                    + System.identityHashCode(targets[j]);
+        return hash;
+    }
+}
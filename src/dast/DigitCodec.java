@@ -0,0 +1,423 @@
+package dast;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+import tools.Benchmark;
+
+/**
+ * A toBoundedIntArray that can hand out the digits of an element one at a
+ * time, without building the array. A trie walks its nodes as the digits
+ * arrive, so looking up an element with a DigitCodec allocates nothing.
+ * Rather than a cursor object that would itself need allocating, the digits
+ * are asked for by index, so an implementation should be able to find the
+ * i'th digit of an element in constant time.
+ *
+ * @author Dov Neimand
+ * @param <T> The elements in the domain of the function.
+ */
+public interface DigitCodec<T> extends toBoundedIntArray<T> {
+
+    /**
+     * The number of digits an element maps to.
+     *
+     * @param key The element.
+     * @return The length of the array apply would return.
+     */
+    public int length(T key);
+
+    /**
+     * A digit of an element.
+     *
+     * @param key The element.
+     * @param i The index of the digit.
+     * @return The i'th element of the array apply would return.
+     */
+    public int digit(T key, int i);
+
+    /**
+     * A digit of an element that is being looked up rather than stored. An
+     * element with a digit the codec has no digit for can not be in any
+     * trie, so a codec that rejects some elements returns -1 here rather
+     * than throwing, and the lookup finds nothing.
+     *
+     * @param key The element.
+     * @param i The index of the digit.
+     * @return The i'th digit of key, or -1 if it has none.
+     */
+    public default int probe(T key, int i) {
+        return digit(key, i);
+    }
+
+    @Override
+    public default int[] apply(T key) {
+        int[] digits = new int[length(key)];
+        for (int i = 0; i < digits.length; i++) digits[i] = digit(key, i);
+        return digits;
+    }
+
+    /**
+     * The identity codec, for elements that already are arrays of digits.
+     *
+     * @param upperBound The upper bound on the digits.
+     * @return A codec that maps each array to itself.
+     */
+    public static DigitCodec<int[]> array(int upperBound) {
+        return new DigitCodec<int[]>() {
+            @Override
+            public int length(int[] key) {
+                return key.length;
+            }
+
+            @Override
+            public int digit(int[] key, int i) {
+                return key[i];
+            }
+
+            @Override
+            public int[] apply(int[] key) {
+                return key;
+            }
+
+            @Override
+            public int[] inverse(int[] array) {
+                return array;
+            }
+
+            @Override
+            public int getUpperBound() {
+                return upperBound;
+            }
+        };
+    }
+
+    /**
+     * Byte arrays, each byte, read as unsigned, being a digit.
+     *
+     * @return A codec for byte arrays, whose digits are below 256.
+     */
+    public static DigitCodec<byte[]> bytes() {
+        return new DigitCodec<byte[]>() {
+            @Override
+            public int length(byte[] key) {
+                return key.length;
+            }
+
+            @Override
+            public int digit(byte[] key, int i) {
+                return key[i] & 0xFF;
+            }
+
+            @Override
+            public byte[] inverse(int[] array) {
+                byte[] bytes = new byte[array.length];
+                for (int i = 0; i < bytes.length; i++)
+                    bytes[i] = (byte) array[i];
+                return bytes;
+            }
+
+            @Override
+            public int getUpperBound() {
+                return 256;
+            }
+        };
+    }
+
+    /**
+     * The remaining bytes of byte buffers, each byte, read as unsigned, being
+     * a digit. Reading the digits does not move the buffer's position.
+     *
+     * @return A codec for byte buffers, whose digits are below 256.
+     */
+    public static DigitCodec<ByteBuffer> byteBuffer() {
+        return new DigitCodec<ByteBuffer>() {
+            @Override
+            public int length(ByteBuffer key) {
+                return key.remaining();
+            }
+
+            @Override
+            public int digit(ByteBuffer key, int i) {
+                return key.get(key.position() + i) & 0xFF;
+            }
+
+            @Override
+            public ByteBuffer inverse(int[] array) {
+                return ByteBuffer.wrap(bytes().inverse(array));
+            }
+
+            @Override
+            public int getUpperBound() {
+                return 256;
+            }
+        };
+    }
+
+    /**
+     * Integers written in base 10, least significant digit first. A negative
+     * integer has one more digit, a 0, after its most significant digit, and
+     * 0 has no digits.
+     *
+     * @return A codec for integers.
+     */
+    public static DigitCodec<Integer> decimal() {
+        return new DigitCodec<Integer>() {
+            @Override
+            public int length(Integer key) {
+                return Decimal.length(key);
+            }
+
+            @Override
+            public int digit(Integer key, int i) {
+                return Decimal.digit(key, i);
+            }
+
+            @Override
+            public Integer inverse(int[] array) {
+                return (int) Decimal.inverse(array);
+            }
+
+            @Override
+            public int getUpperBound() {
+                return 10;
+            }
+        };
+    }
+
+    /**
+     * Longs written in base 10, least significant digit first, as in
+     * decimal().
+     *
+     * @return A codec for longs.
+     */
+    public static DigitCodec<Long> decimalLong() {
+        return new DigitCodec<Long>() {
+            @Override
+            public int length(Long key) {
+                return Decimal.length(key);
+            }
+
+            @Override
+            public int digit(Long key, int i) {
+                return Decimal.digit(key, i);
+            }
+
+            @Override
+            public Long inverse(int[] array) {
+                return Decimal.inverse(array);
+            }
+
+            @Override
+            public int getUpperBound() {
+                return 10;
+            }
+        };
+    }
+
+    /**
+     * Integers written in a power of two radix, most significant digit
+     * first, each with the same number of digits. The sign bit is flipped
+     * first, so the digits of the negatives come before those of the
+     * positives and a trie keeps the integers in numeric order. The digits
+     * are taken with a shift and a mask, without dividing. A larger radix
+     * makes a shallower trie with wider nodes.
+     *
+     * @param radix 2, 4, 16 or 256.
+     * @return A codec for integers, whose digits are below radix.
+     * @throws IllegalArgumentException If the radix is not one of those.
+     */
+    public static DigitCodec<Integer> radix(int radix) {
+        int bits = Radix.bits(radix);
+        return new DigitCodec<Integer>() {
+            @Override
+            public int length(Integer key) {
+                return Integer.SIZE / bits;
+            }
+
+            @Override
+            public int digit(Integer key, int i) {
+                return (int) Radix.digit(key ^ Integer.MIN_VALUE, Integer.SIZE,
+                        bits, i);
+            }
+
+            @Override
+            public Integer inverse(int[] array) {
+                return (int) Radix.inverse(array, bits) ^ Integer.MIN_VALUE;
+            }
+
+            @Override
+            public int getUpperBound() {
+                return radix;
+            }
+        };
+    }
+
+    /**
+     * Longs written in a power of two radix, most significant digit first,
+     * as in radix(int).
+     *
+     * @param radix 2, 4, 16 or 256.
+     * @return A codec for longs, whose digits are below radix.
+     * @throws IllegalArgumentException If the radix is not one of those.
+     */
+    public static DigitCodec<Long> radixLong(int radix) {
+        int bits = Radix.bits(radix);
+        return new DigitCodec<Long>() {
+            @Override
+            public int length(Long key) {
+                return Long.SIZE / bits;
+            }
+
+            @Override
+            public int digit(Long key, int i) {
+                return (int) Radix.digit(key ^ Long.MIN_VALUE, Long.SIZE, bits,
+                        i);
+            }
+
+            @Override
+            public Long inverse(int[] array) {
+                return Radix.inverse(array, bits) ^ Long.MIN_VALUE;
+            }
+
+            @Override
+            public int getUpperBound() {
+                return radix;
+            }
+        };
+    }
+
+    /**
+     * Compares tries of random integers written in base 10 and in each power
+     * of two radix: the bytes they hold and the time to look an integer up.
+     *
+     * @param args Not used.
+     */
+    public static void main(String[] args) {
+        int n = 500_000;
+        Random rand = new Random(1);
+        Integer[] keys = new Integer[n];
+        for (int i = 0; i < n; i++) keys[i] = rand.nextInt();
+
+        List<DigitCodec<Integer>> codecs = List.of(decimal(), radix(2),
+                radix(4), radix(16), radix(256));
+        for (DigitCodec<Integer> codec : codecs)
+            for (boolean compressed : new boolean[]{false, true}) {
+                long before = Benchmark.usedHeap();
+                Trie<Integer> trie = new Trie<>(codec, compressed);
+                trie.insert(keys);
+                long bytes = Benchmark.usedHeap() - before;
+                double nanos = Benchmark.nanosPerOp(n,
+                        i -> trie.contains(keys[i], codec));
+                System.out.printf("radix %3d%s: %,d bytes, %.1f ns per "
+                        + "lookup%n", codec.getUpperBound(),
+                        compressed ? " compressed" : "", bytes, nanos);
+            }
+    }
+}
+
+/**
+ * Writing numbers in base 10 for the decimal codecs.
+ */
+class Decimal {
+
+    /**
+     * Powers of ten that fit in a long.
+     */
+    private static final long[] POWERS = new long[19];
+
+    static {
+        POWERS[0] = 1;
+        for (int i = 1; i < POWERS.length; i++) POWERS[i] = POWERS[i - 1] * 10;
+    }
+
+    /**
+     * The number of base 10 digits in a number. Note that a negative counts
+     * as a digit, and that 0 has no digits.
+     *
+     * @param l The number.
+     * @return The number of digits of l.
+     */
+    static int length(long l) {
+        int length = 0;
+        while (length < POWERS.length && l / POWERS[length] != 0) length++;
+        return l < 0 ? length + 1 : length;
+    }
+
+    /**
+     * A digit of a number written in base 10, least significant digit first.
+     * A negative number has one more digit, a 0, after its most significant
+     * digit, which this gives since every digit past the most significant is
+     * 0.
+     *
+     * @param l The number.
+     * @param i The index of the digit.
+     * @return The i'th digit of l.
+     */
+    static int digit(long l, int i) {
+        if (i >= POWERS.length) return 0;
+        return (int) Math.abs(l / POWERS[i] % 10);
+    }
+
+    /**
+     * The number whose base 10 digits these are.
+     *
+     * @param array The digits, least significant first, with a trailing 0 if
+     * the number is negative.
+     * @return The number.
+     */
+    static long inverse(int[] array) {
+        if (array.length == 0) return 0;
+        boolean negative = array[array.length - 1] == 0;
+        long inverse = 0;
+        for (int i = negative ? array.length - 2 : array.length - 1; i >= 0;
+                i--)
+            inverse = inverse * 10 + (negative ? -array[i] : array[i]);
+        return inverse;
+    }
+}
+
+/**
+ * Writing numbers in a power of two radix for the radix codecs.
+ */
+class Radix {
+
+    /**
+     * The number of bits in a digit of a radix.
+     *
+     * @param radix 2, 4, 16 or 256.
+     * @return The base 2 logarithm of radix.
+     * @throws IllegalArgumentException If the radix is not one of those.
+     */
+    static int bits(int radix) {
+        if (radix != 2 && radix != 4 && radix != 16 && radix != 256)
+            throw new IllegalArgumentException("The radix " + radix
+                    + " is not 2, 4, 16 or 256.");
+        return Integer.numberOfTrailingZeros(radix);
+    }
+
+    /**
+     * A digit of a number, most significant first.
+     *
+     * @param l The number, with its sign bit already flipped.
+     * @param size The number of bits in the number.
+     * @param bits The number of bits in a digit.
+     * @param i The index of the digit.
+     * @return The i'th digit of l.
+     */
+    static long digit(long l, int size, int bits, int i) {
+        return l >>> (size - bits * (i + 1)) & ((1 << bits) - 1);
+    }
+
+    /**
+     * The number whose digits these are.
+     *
+     * @param array The digits, most significant first.
+     * @param bits The number of bits in a digit.
+     * @return The number, with its sign bit still flipped.
+     */
+    static long inverse(int[] array, int bits) {
+        long inverse = 0;
+        for (int digit : array) inverse = inverse << bits | digit;
+        return inverse;
+    }
+}
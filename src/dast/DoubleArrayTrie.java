@@ -0,0 +1,444 @@
+package dast;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import tools.Benchmark;
+
+/**
+ * A read only trie packed into two int arrays, base and check, as described
+ * by Aoe. Each state is an index into the arrays. The child of state s with
+ * digit d is the state t = base[s] + d, which is only really a child if
+ * check[t] == s. So following a digit costs two array reads and there is no
+ * object graph to chase or for the garbage collector to mark.
+ *
+ * It is made by compiling a Trie, after which it can not be changed.
+ *
+ * @author Dov Neimand
+ * @param <T> The type of element in the trie.
+ */
+public class DoubleArrayTrie<T> {
+
+    /**
+     * The value of check at an index that is not a state.
+     */
+    private static final int FREE = -1;
+
+    /**
+     * The value of check at the root, which has no parent. No state matches
+     * it, so no digit leads back to the root, even from a root whose base
+     * was never set.
+     */
+    private static final int ROOT = -2;
+
+    private final toBoundedIntArray<T> map;
+    private final int bound;
+
+    /**
+     * For each state, the offset its children's digits are added to.
+     */
+    private int[] base;
+
+    /**
+     * For each state, its parent, or FREE if the index is not a state. The
+     * root is state 0 and its check is ROOT.
+     */
+    private int[] check;
+
+    /**
+     * A bit for each state that is the last digit of an element.
+     */
+    private long[] terminal;
+
+    /**
+     * The number of states.
+     */
+    private int numStates;
+
+    /**
+     * While compiling, the free indices form a doubly linked list through
+     * these arrays, so looking for room skips over the indices in use.
+     */
+    private int[] nextFree, prevFree;
+
+    /**
+     * The first and last free index while compiling.
+     */
+    private int freeHead, freeTail;
+
+    /**
+     * Compiles a trie. Runs in a path compressed trie are expanded into one
+     * state per digit.
+     *
+     * @param root The root of the trie being compiled.
+     * @param map The map from elements to digits.
+     * @param bound The number of digits in the alphabet.
+     */
+    DoubleArrayTrie(TrieNode root, toBoundedIntArray<T> map, int bound) {
+        this.map = map;
+        this.bound = bound;
+        base = new int[0];
+        check = new int[0];
+        nextFree = new int[0];
+        prevFree = new int[0];
+        freeHead = freeTail = -1;
+        ensureCapacity(1024);
+        terminal = new long[16];
+
+        TrieNode[] queueNodes = {root};
+        int[] queueRun = {0}, queueState = {0};
+        int head = 0, tail = 1, end = 1;
+        int[] digits = new int[bound];
+        claim(0, ROOT);
+        numStates = 1;
+
+        while (head < tail) {
+            TrieNode n = queueNodes[head];
+            int runPos = queueRun[head], s = queueState[head];
+            queueNodes[head++] = null;
+
+            int numDigits = 0;
+            if (runPos < n.runLength()) digits[numDigits++] = n.run(runPos);
+            else {
+                if (n.isTerminal()) setTerminal(s);
+                for (int d = n.nextDigit(0); d >= 0; d = n.nextDigit(d + 1))
+                    digits[numDigits++] = d;
+            }
+            if (numDigits == 0) continue;
+
+            int b = findBase(digits, numDigits);
+            base[s] = b;
+            for (int i = 0; i < numDigits; i++) {
+                int t = b + digits[i];
+                claim(t, s);
+                end = Math.max(end, t + 1);
+                if (tail == queueNodes.length) {
+                    queueNodes = Arrays.copyOf(queueNodes, tail * 2);
+                    queueRun = Arrays.copyOf(queueRun, tail * 2);
+                    queueState = Arrays.copyOf(queueState, tail * 2);
+                }
+                if (runPos < n.runLength()) {
+                    queueNodes[tail] = n;
+                    queueRun[tail] = runPos + 1;
+                } else {
+                    queueNodes[tail] = n.child(digits[i]);
+                    queueRun[tail] = 0;
+                }
+                queueState[tail++] = t;
+                numStates++;
+            }
+        }
+        nextFree = prevFree = null;
+
+        base = Arrays.copyOf(base, end);
+        check = Arrays.copyOf(check, end);
+        terminal = Arrays.copyOf(terminal, (end + 63) >>> 6);
+    }
+
+    /**
+     * Makes sure an index can be used in base and check.
+     *
+     * @param index The index.
+     */
+    private void ensureCapacity(int index) {
+        if (index < check.length) return;
+        int old = check.length, length = Math.max(old * 2, index + 1);
+        base = Arrays.copyOf(base, length);
+        check = Arrays.copyOf(check, length);
+        nextFree = Arrays.copyOf(nextFree, length);
+        prevFree = Arrays.copyOf(prevFree, length);
+        Arrays.fill(check, old, length, FREE);
+        for (int i = old; i < length; i++) {
+            prevFree[i] = freeTail;
+            nextFree[i] = -1;
+            if (freeTail < 0) freeHead = i;
+            else nextFree[freeTail] = i;
+            freeTail = i;
+        }
+    }
+
+    /**
+     * Makes a free index a state.
+     *
+     * @param t The index.
+     * @param parent The parent of the new state, or ROOT for the root.
+     */
+    private void claim(int t, int parent) {
+        check[t] = parent;
+        if (prevFree[t] < 0) freeHead = nextFree[t];
+        else nextFree[prevFree[t]] = nextFree[t];
+        if (nextFree[t] < 0) freeTail = prevFree[t];
+        else prevFree[nextFree[t]] = prevFree[t];
+    }
+
+    /**
+     * Finds an offset at which every one of the proffered digits lands on a
+     * free index.
+     *
+     * @param digits The digits of the children, in ascending order.
+     * @param numDigits The number of digits in use.
+     * @return The offset, at least 1 so that no state's child is the root.
+     */
+    private int findBase(int[] digits, int numDigits) {
+        for (int pos = freeHead;; pos = nextFree[pos]) {
+            ensureCapacity(pos + bound);
+            int b = pos - digits[0];
+            if (b < 1) continue;
+            boolean fits = true;
+            for (int i = 1; i < numDigits && fits; i++)
+                fits = check[b + digits[i]] == FREE;
+            if (fits) return b;
+        }
+    }
+
+    /**
+     * Marks a state as the last digit of an element.
+     *
+     * @param s The state.
+     */
+    private void setTerminal(int s) {
+        if (s >>> 6 >= terminal.length)
+            terminal = Arrays.copyOf(terminal, Math.max(terminal.length * 2,
+                    (s >>> 6) + 1));
+        terminal[s >>> 6] |= 1L << s;
+    }
+
+    /**
+     * Is the state the last digit of an element.
+     *
+     * @param s The state.
+     * @return True if it is, false otherwise.
+     */
+    private boolean isTerminal(int s) {
+        return (terminal[s >>> 6] & (1L << s)) != 0;
+    }
+
+    /**
+     * The child of a state.
+     *
+     * @param s The state.
+     * @param digit The digit of the child.
+     * @return The child, or -1 if there is no such child.
+     */
+    private int child(int s, int digit) {
+        int t = base[s] + digit;
+        return t < check.length && check[t] == s ? t : -1;
+    }
+
+    /**
+     * The state reached by following the proffered digits from the root.
+     *
+     * @param <K> The form the key is given in.
+     * @param key The key.
+     * @param codec Gives the digits of key.
+     * @return The state, or -1 if the digits fall off the trie.
+     */
+    private <K> int find(K key, DigitCodec<K> codec) {
+        int s = 0;
+        for (int i = 0, length = codec.length(key); i < length && s >= 0;
+                i++) {
+            int digit = codec.probe(key, i);
+            s = digit < 0 ? -1 : child(s, digit);
+        }
+        return s;
+    }
+
+    /**
+     * The state reached by following the digits of an element from the
+     * root.
+     *
+     * @param key The element.
+     * @return The state, or -1 if the digits fall off the trie.
+     */
+    private int find(T key) {
+        if (map instanceof DigitCodec) return find(key, (DigitCodec<T>) map);
+        return find(map.apply(key), DigitCodec.array(bound));
+    }
+
+    /**
+     * Does the trie contain this element.
+     *
+     * @param key The element to be searched for.
+     * @return True if the trie contains key, false otherwise.
+     */
+    public boolean contains(T key) {
+        int s = find(key);
+        return s >= 0 && isTerminal(s);
+    }
+
+    /**
+     * Does the trie contain an element that starts with prefix.
+     *
+     * @param prefix The prefix.
+     * @return True if some element starts with prefix, false otherwise.
+     */
+    public boolean hasPrefix(T prefix) {
+        return find(prefix) >= 0;
+    }
+
+    /**
+     * All the elements in the trie with the proffered prefix, in order.
+     *
+     * @param prefix The prefix of the desired elements.
+     * @return All the elements in the trie with the desired prefix.
+     */
+    public Stream<T> all(T prefix) {
+        int s = find(prefix);
+        if (s < 0) return Stream.of();
+        int[] digits = map.apply(prefix);
+        return StreamSupport.stream(new Walk(s, digits), false)
+                .map(array -> map.inverse(array));
+    }
+
+    /**
+     * All the elements in the trie, in order.
+     *
+     * @return All the elements in the trie.
+     */
+    public Stream<T> all() {
+        return StreamSupport.stream(new Walk(0, new int[0]), false)
+                .map(array -> map.inverse(array));
+    }
+
+    /**
+     * The number of states, one for each digit of each distinct prefix.
+     *
+     * @return The number of states.
+     */
+    public int numStates() {
+        return numStates;
+    }
+
+    /**
+     * The number of bytes taken by the arrays.
+     *
+     * @return The bytes used by base, check and the terminal bits.
+     */
+    public long bytes() {
+        return 4L * base.length + 4L * check.length + 8L * terminal.length
+                + 3 * 16;
+    }
+
+    /**
+     * Walks the terminal states below a state in order, with an explicit
+     * stack and one reusable digit buffer.
+     */
+    private class Walk extends Spliterators.AbstractSpliterator<int[]> {
+
+        /**
+         * The states on the current path and, for each, the smallest digit
+         * of its children not yet walked.
+         */
+        private int[] states, from;
+
+        /**
+         * The digits of the current path.
+         */
+        private int[] buffer;
+
+        /**
+         * The number of digits leading to the state the walk started at.
+         */
+        private final int start;
+
+        private int depth;
+        private boolean pending;
+
+        /**
+         * The constructor.
+         *
+         * @param s The state the walk starts at.
+         * @param prefix The digits leading to s.
+         */
+        Walk(int s, int[] prefix) {
+            super(Long.MAX_VALUE, ORDERED | DISTINCT | NONNULL);
+            states = new int[8];
+            from = new int[8];
+            buffer = Arrays.copyOf(prefix, prefix.length + 8);
+            start = prefix.length;
+            states[0] = s;
+            depth = 1;
+            pending = isTerminal(s);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super int[]> action) {
+            if (pending) {
+                pending = false;
+                action.accept(Arrays.copyOf(buffer, start));
+                return true;
+            }
+            while (depth > 0) {
+                int s = states[depth - 1], digit = from[depth - 1], t = -1;
+                while (digit < bound && (t = child(s, digit)) < 0) digit++;
+                if (t < 0) {
+                    depth--;
+                    continue;
+                }
+                from[depth - 1] = digit + 1;
+
+                int length = start + depth - 1;
+                if (length == buffer.length)
+                    buffer = Arrays.copyOf(buffer, length * 2);
+                buffer[length] = digit;
+                if (depth == states.length) {
+                    states = Arrays.copyOf(states, depth * 2);
+                    from = Arrays.copyOf(from, depth * 2);
+                }
+                states[depth] = t;
+                from[depth++] = 0;
+
+                if (isTerminal(t)) {
+                    action.accept(Arrays.copyOf(buffer, length + 1));
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Compares the memory and lookup time of a pointer based trie with its
+     * compiled double array form.
+     *
+     * @param args Optionally the name of a file with one word per line.
+     * Otherwise made up words are used.
+     * @throws IOException If the file can not be read.
+     */
+    public static void main(String[] args) throws IOException {
+        String[] words = Benchmark.words(args, 1_000_000);
+
+        long before = Benchmark.usedHeap();
+        Trie<String> trie = Trie.wordTrie();
+        trie.insert(words);
+        long trieBytes = Benchmark.usedHeap() - before;
+
+        DoubleArrayTrie<String> compiled = trie.compile();
+
+        double trieNanos = Benchmark.nanosPerOp(words.length,
+                i -> trie.contains(words[i]));
+        double compiledNanos = Benchmark.nanosPerOp(words.length,
+                i -> compiled.contains(words[i]));
+
+        System.out.println(words.length + " words, "
+                + compiled.numStates() + " states");
+        System.out.printf("Trie:            %,d bytes, %.0f ns per lookup%n",
+                trieBytes, trieNanos);
+        System.out.printf("DoubleArrayTrie: %,d bytes, %.0f ns per lookup%n",
+                compiled.bytes(), compiledNanos);
+        System.out.println(compiled.contains("ab") + " "
+                + compiled.all(words[0].substring(0, 2)).limit(3).toList());
+
+        Trie<String> empty = Trie.wordTrie(), onlyEmpty = Trie.wordTrie();
+        onlyEmpty.insert("");
+        System.out.println(empty.compile().all().toList() + " "
+                + empty.compile().contains("AAA") + " "
+                + onlyEmpty.compile().all().count() + " "
+                + onlyEmpty.compile().contains("") + " "
+                + onlyEmpty.compile().hasPrefix("A"));
+    }
+}
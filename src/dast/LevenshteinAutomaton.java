@@ -0,0 +1,136 @@
+package dast;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Accepts the sequences of digits within some number of edits of a key,
+ * where an edit inserts, deletes or replaces a single digit.
+ *
+ * A state is a row of the edit distance table between the key and the digits
+ * read so far: entry j is the distance to the first j digits of the key,
+ * capped at one more than the edits allowed. A row whose entries are all
+ * capped is dead. Rows are numbered as they are first reached, and each
+ * transition is computed once and then remembered, so the automaton is
+ * determinized lazily and only as far as a walk actually takes it.
+ *
+ * Digits that are not in the key all move a state to the same place, so
+ * transitions are remembered per class of digit, one class for each distinct
+ * digit of the key and one for every other digit.
+ *
+ * @author Dov Neimand
+ */
+public class LevenshteinAutomaton implements Automaton {
+
+    /**
+     * Marks a transition that has not been computed yet.
+     */
+    private static final int UNKNOWN = -2;
+
+    private final int[] key;
+    private final int maxEdits;
+
+    /**
+     * The distinct digits of the key, sorted. A digit's class is its index
+     * here, or distinct.length if it is not in the key.
+     */
+    private final int[] distinct;
+
+    /**
+     * The rows of the states, by state.
+     */
+    private final ArrayList<int[]> rows;
+
+    /**
+     * The transitions of the states, by state and class of digit.
+     */
+    private final ArrayList<int[]> transitions;
+
+    /**
+     * The state of each row reached so far.
+     */
+    private final HashMap<IntBuffer, Integer> states;
+
+    /**
+     * The constructor.
+     *
+     * @param key The digits of the key.
+     * @param maxEdits The most edits a sequence may be from the key and still
+     * be accepted.
+     */
+    public LevenshteinAutomaton(int[] key, int maxEdits) {
+        if (maxEdits < 0)
+            throw new IllegalArgumentException("maxEdits is negative.");
+        this.key = key.clone();
+        this.maxEdits = maxEdits;
+        distinct = Arrays.stream(key).distinct().sorted().toArray();
+        rows = new ArrayList<>();
+        transitions = new ArrayList<>();
+        states = new HashMap<>();
+
+        int[] first = new int[key.length + 1];
+        for (int j = 0; j < first.length; j++)
+            first[j] = Math.min(j, maxEdits + 1);
+        state(first);
+    }
+
+    /**
+     * The state of a row, numbering it if it is new.
+     *
+     * @param row The row.
+     * @return Its state, or -1 if the row is dead.
+     */
+    private int state(int[] row) {
+        boolean live = false;
+        for (int d : row) live |= d <= maxEdits;
+        if (!live) return -1;
+
+        Integer state = states.get(IntBuffer.wrap(row));
+        if (state != null) return state;
+        int[] unknown = new int[distinct.length + 1];
+        Arrays.fill(unknown, UNKNOWN);
+        rows.add(row);
+        transitions.add(unknown);
+        states.put(IntBuffer.wrap(row), rows.size() - 1);
+        return rows.size() - 1;
+    }
+
+    @Override
+    public int start() {
+        return 0;
+    }
+
+    @Override
+    public int step(int state, int digit) {
+        int c = Arrays.binarySearch(distinct, digit);
+        if (c < 0) c = distinct.length;
+        int next = transitions.get(state)[c];
+        if (next != UNKNOWN) return next;
+
+        int[] row = rows.get(state), stepped = new int[row.length];
+        stepped[0] = Math.min(row[0] + 1, maxEdits + 1);
+        for (int j = 1; j < row.length; j++)
+            stepped[j] = Math.min(maxEdits + 1, Math.min(
+                    row[j - 1] + (key[j - 1] == digit ? 0 : 1),
+                    Math.min(row[j], stepped[j - 1]) + 1));
+        next = state(stepped);
+        transitions.get(state)[c] = next;
+        return next;
+    }
+
+    @Override
+    public boolean accepts(int state) {
+        return rows.get(state)[key.length] <= maxEdits;
+    }
+
+    /**
+     * The number of states reached so far.
+     *
+     * @return The number of states determinized so far.
+     */
+    public int numStates() {
+        return rows.size();
+    }
+}
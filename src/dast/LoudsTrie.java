@@ -0,0 +1,526 @@
+package dast;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import tools.Benchmark;
+
+/**
+ * A read only trie in level order unary degree sequence (LOUDS) form, kept
+ * in a file and read through a memory mapping. Lookups run directly on the
+ * mapped bytes, so many processes opening the same file share its pages, and
+ * the trie costs a few bits per node instead of an object per node.
+ *
+ * The nodes are numbered in level order, the root being 0. The shape of the
+ * trie is one bit vector: 10 for a super root above the root, then for each
+ * node in order a 1 for each of its children followed by a 0. Node i is
+ * then the i+1'th 1 in the vector, and its children start right after the
+ * i+1'th 0. Finding those takes rank, the number of 1s up to a position, and
+ * select, the position of the j'th 0, both answered with the help of a small
+ * directory of counts kept after every 512 bits. The digit on the edge into
+ * each node, and whether each node is terminal, are kept in separate arrays
+ * indexed by node.
+ *
+ * @author Dov Neimand
+ * @param <T> The type of element in the trie.
+ */
+public class LoudsTrie<T> {
+
+    /**
+     * Marks the start of a LOUDS file.
+     */
+    private static final int MAGIC = 0x4C4F5544;
+
+    /**
+     * The number of 64 bit words between entries of the rank directory.
+     */
+    private static final int BLOCK = 8;
+
+    /**
+     * The number of bytes before the bit vector. The header holds the magic
+     * number, the bound, the number of nodes, the width of a label in bytes
+     * and the number of words in the bit vector, padded to a multiple of 8.
+     */
+    private static final int HEADER = 24;
+
+    private final toBoundedIntArray<T> map;
+    private final ByteBuffer buf;
+    private final int bound, numNodes, labelWidth, numWords;
+
+    /**
+     * Where the rank directory, the terminal bits and the labels start.
+     */
+    private final int rankAt, terminalAt, labelsAt;
+
+    /**
+     * Opens a LOUDS file.
+     *
+     * @param buf The contents of the file.
+     * @param map The map from elements to digits the trie was built with.
+     */
+    private LoudsTrie(ByteBuffer buf, toBoundedIntArray<T> map) {
+        this.buf = buf;
+        this.map = map;
+        if (buf.getInt(0) != MAGIC)
+            throw new IllegalArgumentException("Not a LOUDS trie file.");
+        bound = buf.getInt(4);
+        numNodes = buf.getInt(8);
+        labelWidth = buf.getInt(12);
+        numWords = buf.getInt(16);
+        rankAt = HEADER + 8 * numWords;
+        terminalAt = rankAt + 8 * ((numWords / BLOCK + 2) / 2);
+        labelsAt = terminalAt + 8 * ((numNodes + 63) >>> 6);
+    }
+
+    /**
+     * Opens a LOUDS file by memory mapping it.
+     *
+     * @param <T> The type of element in the trie.
+     * @param file The file, as written by write.
+     * @param map The map from elements to digits the trie was built with.
+     * @return The trie stored in the file.
+     * @throws IOException If the file can not be mapped.
+     */
+    public static <T> LoudsTrie<T> open(Path file, toBoundedIntArray<T> map)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, channel.size());
+            return new LoudsTrie<>(mapped, map);
+        }
+    }
+
+    /**
+     * Writes a trie to a file in LOUDS form. Runs in a path compressed trie
+     * are expanded into one node per digit.
+     *
+     * @param trie The trie to be written.
+     * @param file The file to write it to. It is replaced if it exists.
+     * @throws IOException If the file can not be written.
+     */
+    public static void write(Trie<?> trie, Path file) throws IOException {
+        TrieNode[] queueNodes = {trie.root()};
+        int[] queueRun = {0};
+        int head = 0, tail = 1;
+
+        long[] bits = new long[16], terminal = new long[16];
+        int[] labels = new int[16];
+        bits[0] = 1;
+        int numBits = 2;
+
+        while (head < tail) {
+            TrieNode n = queueNodes[head];
+            int runPos = queueRun[head], id = head++;
+
+            if (runPos == n.runLength() && n.isTerminal()) {
+                if (id >>> 6 >= terminal.length)
+                    terminal = Arrays.copyOf(terminal, terminal.length * 2);
+                terminal[id >>> 6] |= 1L << id;
+            }
+
+            int d = runPos < n.runLength() ? n.run(runPos) : n.nextDigit(0);
+            while (d >= 0) {
+                if (tail == queueNodes.length) {
+                    queueNodes = Arrays.copyOf(queueNodes, tail * 2);
+                    queueRun = Arrays.copyOf(queueRun, tail * 2);
+                }
+                if (tail - 1 == labels.length)
+                    labels = Arrays.copyOf(labels, labels.length * 2);
+                labels[tail - 1] = d;
+                if (runPos < n.runLength()) {
+                    queueNodes[tail] = n;
+                    queueRun[tail++] = runPos + 1;
+                    d = -1;
+                } else {
+                    queueNodes[tail] = n.child(d);
+                    queueRun[tail++] = 0;
+                    d = n.nextDigit(d + 1);
+                }
+
+                if (numBits >>> 6 >= bits.length)
+                    bits = Arrays.copyOf(bits, bits.length * 2);
+                bits[numBits >>> 6] |= 1L << numBits;
+                numBits++;
+            }
+            numBits++;
+            queueNodes[id] = null;
+        }
+
+        int numNodes = tail, bound = trie.bound(),
+                numWords = (numBits + 63) >>> 6,
+                labelWidth = bound <= 1 << 8 ? 1 : bound <= 1 << 16 ? 2 : 4,
+                rankWords = (numWords / BLOCK + 2) / 2,
+                terminalWords = (numNodes + 63) >>> 6;
+        long size = HEADER + 8L * (numWords + rankWords + terminalWords)
+                + (long) labelWidth * (numNodes - 1);
+
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE,
+                    0, size);
+            out.putInt(MAGIC).putInt(bound).putInt(numNodes)
+                    .putInt(labelWidth).putInt(numWords).putInt(0);
+            for (int w = 0; w < numWords; w++) out.putLong(bits[w]);
+
+            int ones = 0;
+            for (int block = 0; block <= numWords / BLOCK; block++) {
+                out.putInt(ones);
+                for (int w = block * BLOCK;
+                        w < Math.min(numWords, (block + 1) * BLOCK); w++)
+                    ones += Long.bitCount(bits[w]);
+            }
+            if ((numWords / BLOCK + 1) % 2 == 1) out.putInt(0);
+
+            for (int w = 0; w < terminalWords; w++)
+                out.putLong(w < terminal.length ? terminal[w] : 0);
+            for (int i = 0; i < numNodes - 1; i++)
+                if (labelWidth == 1) out.put((byte) labels[i]);
+                else if (labelWidth == 2) out.putShort((short) labels[i]);
+                else out.putInt(labels[i]);
+            out.force();
+        }
+    }
+
+    /**
+     * A word of the bit vector.
+     *
+     * @param w The index of the word.
+     * @return The word.
+     */
+    private long word(int w) {
+        return buf.getLong(HEADER + 8 * w);
+    }
+
+    /**
+     * The number of 1s in the words before a block.
+     *
+     * @param block The index of the block.
+     * @return The number of 1s before it.
+     */
+    private int rankBlock(int block) {
+        return buf.getInt(rankAt + 4 * block);
+    }
+
+    /**
+     * The number of 1s in the bit vector up to and including a position.
+     *
+     * @param p The position.
+     * @return The number of 1s at positions 0 to p.
+     */
+    private int rank1(int p) {
+        int w = p >>> 6, block = w / BLOCK, rank = rankBlock(block);
+        for (int i = block * BLOCK; i < w; i++) rank += Long.bitCount(word(i));
+        return rank + Long.bitCount(word(w) & (-1L >>> (63 - (p & 63))));
+    }
+
+    /**
+     * The position of the j'th 0 in the bit vector, counting from 1.
+     *
+     * @param j Which 0.
+     * @return Its position.
+     */
+    private int select0(int j) {
+        int lo = 0, hi = numWords / BLOCK;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (mid * BLOCK * 64 - rankBlock(mid) < j) lo = mid;
+            else hi = mid - 1;
+        }
+        int w = lo * BLOCK, zeros = w * 64 - rankBlock(lo);
+        long inverted;
+        while (true) {
+            inverted = ~word(w);
+            int count = Long.bitCount(inverted);
+            if (zeros + count >= j) break;
+            zeros += count;
+            w++;
+        }
+        for (int k = j - zeros; k > 1; k--) inverted &= inverted - 1;
+        return w * 64 + Long.numberOfTrailingZeros(inverted);
+    }
+
+    /**
+     * Is a bit of the bit vector 1.
+     *
+     * @param p The position of the bit.
+     * @return True if it is 1, false otherwise.
+     */
+    private boolean bit(int p) {
+        return (word(p >>> 6) & (1L << p)) != 0;
+    }
+
+    /**
+     * The digit on the edge into a node.
+     *
+     * @param id The node, not the root.
+     * @return The digit.
+     */
+    private int label(int id) {
+        int at = labelsAt + labelWidth * (id - 1);
+        if (labelWidth == 1) return buf.get(at) & 0xFF;
+        if (labelWidth == 2) return buf.getShort(at) & 0xFFFF;
+        return buf.getInt(at);
+    }
+
+    /**
+     * Is a node the last digit of an element.
+     *
+     * @param id The node.
+     * @return True if it is, false otherwise.
+     */
+    private boolean isTerminal(int id) {
+        return (buf.getLong(terminalAt + 8 * (id >>> 6)) & (1L << id)) != 0;
+    }
+
+    /**
+     * The position in the bit vector where a node's children start.
+     *
+     * @param id The node.
+     * @return The position of the bit of its first child, or of the 0 that
+     * ends its children if it has none.
+     */
+    private int childrenStart(int id) {
+        return select0(id + 1) + 1;
+    }
+
+    /**
+     * The child of a node.
+     *
+     * @param id The node.
+     * @param digit The digit of the child.
+     * @return The child, or -1 if there is none.
+     */
+    private int child(int id, int digit) {
+        int p = childrenStart(id);
+        if (!bit(p)) return -1;
+        int first = rank1(p) - 1;
+        for (int c = first; bit(p); c++, p++) {
+            int label = label(c);
+            if (label == digit) return c;
+            if (label > digit) return -1;
+        }
+        return -1;
+    }
+
+    /**
+     * The node reached by following the proffered digits from the root.
+     *
+     * @param <K> The form the key is given in.
+     * @param key The key.
+     * @param codec Gives the digits of key.
+     * @return The node, or -1 if the digits fall off the trie.
+     */
+    private <K> int find(K key, DigitCodec<K> codec) {
+        int id = 0;
+        for (int i = 0, length = codec.length(key); i < length && id >= 0;
+                i++) {
+            int digit = codec.probe(key, i);
+            id = digit < 0 ? -1 : child(id, digit);
+        }
+        return id;
+    }
+
+    /**
+     * The node reached by following the digits of an element from the
+     * root.
+     *
+     * @param key The element.
+     * @return The node, or -1 if the digits fall off the trie.
+     */
+    private int find(T key) {
+        if (map instanceof DigitCodec) return find(key, (DigitCodec<T>) map);
+        return find(map.apply(key), DigitCodec.array(bound));
+    }
+
+    /**
+     * Does the trie contain this element.
+     *
+     * @param key The element to be searched for.
+     * @return True if the trie contains key, false otherwise.
+     */
+    public boolean contains(T key) {
+        int id = find(key);
+        return id >= 0 && isTerminal(id);
+    }
+
+    /**
+     * Does the trie contain an element that starts with prefix.
+     *
+     * @param prefix The prefix.
+     * @return True if some element starts with prefix, false otherwise.
+     */
+    public boolean hasPrefix(T prefix) {
+        return find(prefix) >= 0;
+    }
+
+    /**
+     * All the elements in the trie with the proffered prefix, in order.
+     *
+     * @param prefix The prefix of the desired elements.
+     * @return All the elements in the trie with the desired prefix.
+     */
+    public Stream<T> all(T prefix) {
+        int id = find(prefix);
+        if (id < 0) return Stream.of();
+        int[] digits = map.apply(prefix);
+        return StreamSupport.stream(new Walk(id, digits), false)
+                .map(array -> map.inverse(array));
+    }
+
+    /**
+     * All the elements in the trie, in order.
+     *
+     * @return All the elements in the trie.
+     */
+    public Stream<T> all() {
+        return StreamSupport.stream(new Walk(0, new int[0]), false)
+                .map(array -> map.inverse(array));
+    }
+
+    /**
+     * The number of nodes, one for each digit of each distinct prefix.
+     *
+     * @return The number of nodes.
+     */
+    public int numNodes() {
+        return numNodes;
+    }
+
+    /**
+     * The number of digits in the alphabet.
+     *
+     * @return The number of digits in the alphabet.
+     */
+    public int bound() {
+        return bound;
+    }
+
+    /**
+     * The size of the file.
+     *
+     * @return The number of bytes the trie takes.
+     */
+    public long bytes() {
+        return buf.capacity();
+    }
+
+    /**
+     * Writes a word trie to a temporary file, maps it back in and looks some
+     * words up.
+     *
+     * @param args Optionally the name of a file with one word per line.
+     * Otherwise made up words are used.
+     * @throws IOException If the files can not be read or written.
+     */
+    public static void main(String[] args) throws IOException {
+        String[] words = Benchmark.words(args, 1_000_000);
+        Trie<String> trie = Trie.wordTrie();
+        trie.insert(words);
+
+        Path file = Files.createTempFile("words", ".louds");
+        write(trie, file);
+        LoudsTrie<String> louds = open(file, trie.getMap());
+
+        System.out.printf("%,d words, %,d nodes, %,d bytes, %.1f bits per node%n",
+                words.length, louds.numNodes(), louds.bytes(),
+                8.0 * louds.bytes() / louds.numNodes());
+        System.out.printf("%.0f ns per lookup%n", Benchmark.nanosPerOp(
+                words.length, i -> louds.contains(words[i])));
+        System.out.println(louds.all(words[0].substring(0, 2)).limit(3)
+                .toList());
+        Files.delete(file);
+    }
+
+    /**
+     * Walks the terminal nodes below a node in order, with an explicit stack
+     * and one reusable digit buffer. For each node on the path it keeps the
+     * bit vector position of the next child to visit.
+     */
+    private class Walk extends Spliterators.AbstractSpliterator<int[]> {
+
+        /**
+         * For each node on the path, the position in the bit vector of its
+         * next child, and that child's number.
+         */
+        private int[] positions, ids;
+
+        private int[] buffer;
+        private final int start;
+        private int depth;
+        private boolean pending;
+
+        /**
+         * The constructor.
+         *
+         * @param id The node the walk starts at.
+         * @param prefix The digits leading to it.
+         */
+        Walk(int id, int[] prefix) {
+            super(Long.MAX_VALUE, ORDERED | DISTINCT | NONNULL);
+            positions = new int[8];
+            ids = new int[8];
+            buffer = Arrays.copyOf(prefix, prefix.length + 8);
+            start = prefix.length;
+            pending = isTerminal(id);
+            enter(id);
+        }
+
+        /**
+         * Puts a node on top of the path.
+         *
+         * @param id The node.
+         */
+        private void enter(int id) {
+            if (depth == positions.length) {
+                positions = Arrays.copyOf(positions, depth * 2);
+                ids = Arrays.copyOf(ids, depth * 2);
+            }
+            int p = childrenStart(id);
+            positions[depth] = p;
+            ids[depth++] = rank1(p) - (bit(p) ? 1 : 0);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super int[]> action) {
+            if (pending) {
+                pending = false;
+                action.accept(Arrays.copyOf(buffer, start));
+                return true;
+            }
+            while (depth > 0) {
+                int p = positions[depth - 1];
+                if (!bit(p)) {
+                    depth--;
+                    continue;
+                }
+                int c = ids[depth - 1];
+                positions[depth - 1]++;
+                ids[depth - 1]++;
+
+                int length = start + depth - 1;
+                if (length == buffer.length)
+                    buffer = Arrays.copyOf(buffer, length * 2);
+                buffer[length] = label(c);
+                enter(c);
+
+                if (isTerminal(c)) {
+                    action.accept(Arrays.copyOf(buffer, length + 1));
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,387 @@
+package dast;
+
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Accepts the strings matching a regular expression or a glob, as digits of
+ * a SymbolCodec.
+ *
+ * The pattern is parsed into a nondeterministic automaton with empty moves,
+ * after Thompson, and that is determinized lazily: a state is the set of
+ * nondeterministic states the digits so far can reach, numbered when first
+ * reached, and each transition is computed once and remembered. States from
+ * which nothing can be accepted are dropped from every set first, so a set
+ * left empty is dead and a trie walk stops there.
+ *
+ * Regular expressions may use characters, '.' for any character, classes
+ * such as [abc], [a-z] and [^a-z], '*', '+' and '?' after an expression,
+ * '|' between expressions, parentheses, and '\' to take the next character
+ * as it is. A glob may use '?' for any one character, '*' for any run of
+ * characters, and classes. A character outside the codec's alphabet matches
+ * nothing.
+ *
+ * @author Dov Neimand
+ */
+public class PatternAutomaton implements Automaton {
+
+    /**
+     * Marks a transition that has not been computed yet.
+     */
+    private static final int UNKNOWN = -2;
+
+    private final SymbolCodec codec;
+    private final int bound;
+
+    /**
+     * For each nondeterministic state, its empty moves, the digits of its
+     * one other move or null if it has none, and where that move goes.
+     */
+    private final ArrayList<int[]> empty = new ArrayList<>();
+    private final ArrayList<boolean[]> labels = new ArrayList<>();
+    private final ArrayList<Integer> targets = new ArrayList<>();
+
+    /**
+     * The pattern and the index of the next character to parse.
+     */
+    private final String pattern;
+    private int pos;
+
+    private final int accept;
+
+    /**
+     * The start state, or -1 if the pattern can match nothing.
+     */
+    private final int start;
+
+    /**
+     * Can the accepting state be reached from each nondeterministic state.
+     */
+    private boolean[] live;
+
+    /**
+     * The sets of nondeterministic states of the deterministic states, and
+     * their transitions by digit.
+     */
+    private final ArrayList<int[]> sets = new ArrayList<>();
+    private final ArrayList<int[]> transitions = new ArrayList<>();
+    private final HashMap<IntBuffer, Integer> states = new HashMap<>();
+
+    /**
+     * The constructor.
+     *
+     * @param regex The regular expression.
+     * @param codec The alphabet.
+     * @throws IllegalArgumentException If the expression is malformed.
+     */
+    private PatternAutomaton(String regex, SymbolCodec codec) {
+        this.codec = codec;
+        this.bound = codec.getUpperBound();
+        this.pattern = regex;
+        int[] whole = alternation();
+        if (pos < pattern.length())
+            throw new IllegalArgumentException("Unexpected '"
+                    + pattern.charAt(pos) + "' at " + pos + " in " + pattern);
+        accept = newState();
+        addEmpty(whole[1], accept);
+        findLive();
+        start = state(closure(new int[]{whole[0]}));
+    }
+
+    /**
+     * An automaton for a regular expression.
+     *
+     * @param regex The regular expression.
+     * @param codec The alphabet.
+     * @return An automaton accepting the digits of the strings matching
+     * regex.
+     * @throws IllegalArgumentException If the expression is malformed.
+     */
+    public static PatternAutomaton regex(String regex, SymbolCodec codec) {
+        return new PatternAutomaton(regex, codec);
+    }
+
+    /**
+     * An automaton for a glob.
+     *
+     * @param glob The glob.
+     * @param codec The alphabet.
+     * @return An automaton accepting the digits of the strings matching glob.
+     * @throws IllegalArgumentException If the glob has an unclosed class.
+     */
+    public static PatternAutomaton glob(String glob, SymbolCodec codec) {
+        StringBuilder regex = new StringBuilder();
+        boolean inClass = false;
+        for (char c : glob.toCharArray()) {
+            if (inClass) {
+                regex.append(c);
+                inClass = c != ']';
+            } else if (c == '?') regex.append('.');
+            else if (c == '*') regex.append(".*");
+            else if (c == '[') {
+                regex.append(c);
+                inClass = true;
+            } else regex.append('\\').append(c);
+        }
+        return new PatternAutomaton(regex.toString(), codec);
+    }
+
+    /**
+     * A new nondeterministic state with no moves.
+     *
+     * @return The new state.
+     */
+    private int newState() {
+        empty.add(new int[0]);
+        labels.add(null);
+        targets.add(-1);
+        return empty.size() - 1;
+    }
+
+    /**
+     * Adds an empty move.
+     *
+     * @param from The state moved from.
+     * @param to The state moved to.
+     */
+    private void addEmpty(int from, int to) {
+        int[] moves = empty.get(from);
+        moves = Arrays.copyOf(moves, moves.length + 1);
+        moves[moves.length - 1] = to;
+        empty.set(from, moves);
+    }
+
+    /**
+     * Parses expressions separated by '|'.
+     *
+     * @return The start and end states of the fragment.
+     */
+    private int[] alternation() {
+        int[] first = concatenation();
+        if (pos == pattern.length() || pattern.charAt(pos) != '|')
+            return first;
+        int start = newState(), end = newState();
+        addEmpty(start, first[0]);
+        addEmpty(first[1], end);
+        while (pos < pattern.length() && pattern.charAt(pos) == '|') {
+            pos++;
+            int[] next = concatenation();
+            addEmpty(start, next[0]);
+            addEmpty(next[1], end);
+        }
+        return new int[]{start, end};
+    }
+
+    /**
+     * Parses expressions one after another.
+     *
+     * @return The start and end states of the fragment.
+     */
+    private int[] concatenation() {
+        int start = newState(), end = start;
+        while (pos < pattern.length() && pattern.charAt(pos) != '|'
+                && pattern.charAt(pos) != ')') {
+            int[] next = repetition();
+            addEmpty(end, next[0]);
+            end = next[1];
+        }
+        return new int[]{start, end};
+    }
+
+    /**
+     * Parses an expression followed by any number of '*', '+' and '?'.
+     *
+     * @return The start and end states of the fragment.
+     */
+    private int[] repetition() {
+        int[] f = atom();
+        while (pos < pattern.length() && "*+?".indexOf(pattern.charAt(pos)) >= 0) {
+            char op = pattern.charAt(pos++);
+            int start = newState(), end = newState();
+            addEmpty(start, f[0]);
+            addEmpty(f[1], end);
+            if (op != '+') addEmpty(start, end);
+            if (op != '?') addEmpty(f[1], f[0]);
+            f = new int[]{start, end};
+        }
+        return f;
+    }
+
+    /**
+     * Parses a character, '.', a class or a parenthesized expression.
+     *
+     * @return The start and end states of the fragment.
+     */
+    private int[] atom() {
+        if (pos == pattern.length())
+            throw new IllegalArgumentException("Missing expression at the end"
+                    + " of " + pattern);
+        char c = pattern.charAt(pos++);
+        if (c == '(') {
+            int[] inner = alternation();
+            if (pos == pattern.length() || pattern.charAt(pos++) != ')')
+                throw new IllegalArgumentException("Unclosed '(' in "
+                        + pattern);
+            return inner;
+        }
+        if ("*+?".indexOf(c) >= 0)
+            throw new IllegalArgumentException("Nothing to repeat at "
+                    + (pos - 1) + " in " + pattern);
+
+        boolean[] digits = new boolean[bound];
+        if (c == '.') Arrays.fill(digits, true);
+        else if (c == '[') digits = characterClass();
+        else {
+            if (c == '\\') {
+                if (pos == pattern.length())
+                    throw new IllegalArgumentException("Nothing to escape at"
+                            + " the end of " + pattern);
+                c = pattern.charAt(pos++);
+            }
+            int d = codec.digitOf(c);
+            if (d >= 0) digits[d] = true;
+        }
+        int start = newState(), end = newState();
+        labels.set(start, digits);
+        targets.set(start, end);
+        return new int[]{start, end};
+    }
+
+    /**
+     * Parses a class, after its '['.
+     *
+     * @return The digits in the class.
+     */
+    private boolean[] characterClass() {
+        boolean[] digits = new boolean[bound];
+        boolean negated = pos < pattern.length() && pattern.charAt(pos) == '^';
+        if (negated) pos++;
+        boolean first = true;
+        while (true) {
+            if (pos == pattern.length())
+                throw new IllegalArgumentException("Unclosed '[' in "
+                        + pattern);
+            char c = pattern.charAt(pos++);
+            if (c == ']' && !first) break;
+            first = false;
+            char last = c;
+            if (pos + 1 < pattern.length() && pattern.charAt(pos) == '-'
+                    && pattern.charAt(pos + 1) != ']') {
+                last = pattern.charAt(pos + 1);
+                pos += 2;
+            }
+            for (char x = c; x <= last && x >= c; x++) {
+                int d = codec.digitOf(x);
+                if (d >= 0) digits[d] = true;
+            }
+        }
+        if (negated)
+            for (int d = 0; d < bound; d++) digits[d] = !digits[d];
+        return digits;
+    }
+
+    /**
+     * Marks the nondeterministic states from which the accepting state can
+     * be reached, searching backwards from it.
+     */
+    private void findLive() {
+        int n = empty.size();
+        ArrayList<ArrayList<Integer>> into = new ArrayList<>();
+        for (int s = 0; s < n; s++) into.add(new ArrayList<>());
+        for (int s = 0; s < n; s++) {
+            for (int t : empty.get(s)) into.get(t).add(s);
+            boolean[] l = labels.get(s);
+            if (l != null) {
+                boolean any = false;
+                for (boolean b : l) any |= b;
+                if (any) into.get(targets.get(s)).add(s);
+            }
+        }
+        live = new boolean[n];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        live[accept] = true;
+        queue.add(accept);
+        while (!queue.isEmpty())
+            for (int s : into.get(queue.poll()))
+                if (!live[s]) {
+                    live[s] = true;
+                    queue.add(s);
+                }
+    }
+
+    /**
+     * The live states reachable by empty moves from some states.
+     *
+     * @param from The states.
+     * @return The live states reachable from them, sorted.
+     */
+    private int[] closure(int[] from) {
+        boolean[] seen = new boolean[empty.size()];
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        for (int s : from)
+            if (!seen[s]) {
+                seen[s] = true;
+                stack.push(s);
+            }
+        while (!stack.isEmpty())
+            for (int t : empty.get(stack.pop()))
+                if (!seen[t]) {
+                    seen[t] = true;
+                    stack.push(t);
+                }
+        int count = 0;
+        for (int s = 0; s < seen.length; s++) if (seen[s] && live[s]) count++;
+        int[] set = new int[count];
+        for (int s = 0, j = 0; s < seen.length; s++)
+            if (seen[s] && live[s]) set[j++] = s;
+        return set;
+    }
+
+    /**
+     * The deterministic state of a set, numbering it if it is new.
+     *
+     * @param set The set of live nondeterministic states, sorted.
+     * @return Its state, or -1 if the set is empty.
+     */
+    private int state(int[] set) {
+        if (set.length == 0) return -1;
+        Integer state = states.get(IntBuffer.wrap(set));
+        if (state != null) return state;
+        int[] unknown = new int[bound];
+        Arrays.fill(unknown, UNKNOWN);
+        sets.add(set);
+        transitions.add(unknown);
+        states.put(IntBuffer.wrap(set), sets.size() - 1);
+        return sets.size() - 1;
+    }
+
+    @Override
+    public int start() {
+        return start;
+    }
+
+    @Override
+    public int step(int state, int digit) {
+        int next = transitions.get(state)[digit];
+        if (next != UNKNOWN) return next;
+
+        int[] set = sets.get(state), moved = new int[set.length];
+        int count = 0;
+        for (int s : set) {
+            boolean[] l = labels.get(s);
+            if (l != null && l[digit]) moved[count++] = targets.get(s);
+        }
+        next = state(closure(Arrays.copyOf(moved, count)));
+        transitions.get(state)[digit] = next;
+        return next;
+    }
+
+    @Override
+    public boolean accepts(int state) {
+        int[] set = sets.get(state);
+        return Arrays.binarySearch(set, accept) >= 0;
+    }
+}
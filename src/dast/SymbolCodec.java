@@ -0,0 +1,254 @@
+package dast;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import tools.Benchmark;
+
+/**
+ * Maps strings to digits one character at a time, each character in an
+ * alphabet getting its own digit. The digits are read straight from the
+ * string, so looking a string up in a trie allocates nothing.
+ *
+ * @author Dov Neimand
+ */
+public class SymbolCodec implements DigitCodec<String> {
+
+    /**
+     * The character for each digit.
+     */
+    private final char[] symbols;
+
+    /**
+     * The digit for each character, or -1 for characters outside the
+     * alphabet. Only as long as the largest character in the alphabet.
+     */
+    private final int[] digits;
+
+    /**
+     * The constructor.
+     *
+     * @param symbols The alphabet. The i'th character gets digit i. Each
+     * character may only appear once.
+     */
+    public SymbolCodec(char... symbols) {
+        this.symbols = symbols.clone();
+        int max = -1;
+        for (char c : symbols) max = Math.max(max, c);
+        digits = new int[max + 1];
+        Arrays.fill(digits, -1);
+        for (int i = 0; i < symbols.length; i++) {
+            if (digits[symbols[i]] != -1)
+                throw new IllegalArgumentException("The symbol "
+                        + symbols[i] + " appears more than once.");
+            digits[symbols[i]] = i;
+        }
+    }
+
+    /**
+     * The upper and lower case letters, A to Z getting the digits 0 to 25 and
+     * a to z the digits 26 to 51.
+     *
+     * @return A codec for words made of letters.
+     */
+    public static SymbolCodec letters() {
+        char[] letters = new char[52];
+        for (int i = 0; i < 26; i++) {
+            letters[i] = (char) ('A' + i);
+            letters[26 + i] = (char) ('a' + i);
+        }
+        return new SymbolCodec(letters);
+    }
+
+    /**
+     * An alphabet learned from a sample of the strings it will be used for.
+     * The most common character gets digit 0, the next most common digit 1,
+     * and so on, so the children a trie walks to most often sit together at
+     * the front of its nodes. Characters that never appear get no digit at
+     * all, which keeps the bound, and so the widest nodes, as small as the
+     * sample allows. A trie walks its elements in digit order, so with this
+     * codec they no longer come out alphabetically.
+     *
+     * @param sample The strings to count characters in.
+     * @return A codec for the characters in the sample, most common first.
+     */
+    public static SymbolCodec byFrequency(
+            Iterable<? extends CharSequence> sample) {
+        return byFrequency(sample, "");
+    }
+
+    /**
+     * An alphabet learned from a sample of the strings it will be used for,
+     * as in byFrequency(sample), that also has some characters the sample
+     * may be missing. Those that do not appear come last.
+     *
+     * @param sample The strings to count characters in.
+     * @param keep Characters to have digits whether or not they appear.
+     * @return A codec for the characters in the sample and keep, most common
+     * first.
+     */
+    public static SymbolCodec byFrequency(
+            Iterable<? extends CharSequence> sample, CharSequence keep) {
+        long[] counts = new long[Character.MAX_VALUE + 1];
+        for (CharSequence s : sample)
+            for (int i = 0; i < s.length(); i++) counts[s.charAt(i)]++;
+
+        boolean[] used = new boolean[counts.length];
+        int n = 0;
+        for (int c = 0; c < counts.length; c++)
+            if (counts[c] > 0) {
+                used[c] = true;
+                n++;
+            }
+        for (int i = 0; i < keep.length(); i++)
+            if (!used[keep.charAt(i)]) {
+                used[keep.charAt(i)] = true;
+                n++;
+            }
+
+        Integer[] symbols = new Integer[n];
+        for (int c = 0, j = 0; c < used.length; c++)
+            if (used[c]) symbols[j++] = c;
+        Arrays.sort(symbols, Comparator.comparingLong(
+                (Integer c) -> -counts[c]).thenComparing(c -> c));
+
+        char[] alphabet = new char[n];
+        for (int i = 0; i < n; i++) alphabet[i] = (char) (int) symbols[i];
+        return new SymbolCodec(alphabet);
+    }
+
+    /**
+     * The digit of a character.
+     *
+     * @param c The character.
+     * @return Its digit, or -1 if it is not in the alphabet.
+     */
+    public int digitOf(int c) {
+        return c >= 0 && c < digits.length ? digits[c] : -1;
+    }
+
+    /**
+     * The character of a digit.
+     *
+     * @param digit The digit.
+     * @return Its character.
+     */
+    public char symbolOf(int digit) {
+        return symbols[digit];
+    }
+
+    /**
+     * The number of digits a sequence of characters maps to.
+     *
+     * @param key The characters.
+     * @return The number of characters.
+     */
+    public int length(CharSequence key) {
+        return key.length();
+    }
+
+    /**
+     * A digit of a sequence of characters.
+     *
+     * @param key The characters.
+     * @param i The index of the digit.
+     * @return The digit of the i'th character.
+     * @throws IllegalArgumentException If the character is not in the
+     * alphabet.
+     */
+    public int digit(CharSequence key, int i) {
+        int digit = digitOf(key.charAt(i));
+        if (digit < 0)
+            throw new IllegalArgumentException("The character "
+                    + key.charAt(i) + " is not in the alphabet.");
+        return digit;
+    }
+
+    @Override
+    public int probe(String key, int i) {
+        return digitOf(key.charAt(i));
+    }
+
+    @Override
+    public int length(String key) {
+        return key.length();
+    }
+
+    @Override
+    public int digit(String key, int i) {
+        return digit((CharSequence) key, i);
+    }
+
+    @Override
+    public String inverse(int[] array) {
+        char[] chars = new char[array.length];
+        for (int i = 0; i < array.length; i++) chars[i] = symbols[array[i]];
+        return new String(chars);
+    }
+
+    @Override
+    public int getUpperBound() {
+        return symbols.length;
+    }
+
+    /**
+     * This codec for any sequence of characters, such as a StringBuilder or
+     * a CharBuffer, so they can be looked up without making a String.
+     *
+     * @return A codec giving the same digits as this one.
+     */
+    public DigitCodec<CharSequence> chars() {
+        return new DigitCodec<CharSequence>() {
+            @Override
+            public int length(CharSequence key) {
+                return key.length();
+            }
+
+            @Override
+            public int digit(CharSequence key, int i) {
+                return SymbolCodec.this.digit(key, i);
+            }
+
+            @Override
+            public int probe(CharSequence key, int i) {
+                return digitOf(key.charAt(i));
+            }
+
+            @Override
+            public CharSequence inverse(int[] array) {
+                return SymbolCodec.this.inverse(array);
+            }
+
+            @Override
+            public int getUpperBound() {
+                return symbols.length;
+            }
+        };
+    }
+
+    /**
+     * Compares tries of words built with letters() and with an alphabet
+     * learned from the words: the bytes they hold and the time to look a
+     * word up.
+     *
+     * @param args Optionally, a file with one word per line.
+     * @throws IOException If the file can not be read.
+     */
+    public static void main(String[] args) throws IOException {
+        String[] words = Benchmark.words(args, 500_000);
+        SymbolCodec learned = byFrequency(Arrays.asList(words));
+        System.out.println("learned alphabet of " + learned.getUpperBound()
+                + ": " + new String(learned.symbols));
+
+        for (SymbolCodec codec : new SymbolCodec[]{letters(), learned}) {
+            long before = Benchmark.usedHeap();
+            Trie<String> trie = new Trie<>(codec, false);
+            trie.insert(words);
+            long bytes = Benchmark.usedHeap() - before;
+            double nanos = Benchmark.nanosPerOp(words.length,
+                    i -> trie.contains(words[i]));
+            System.out.printf("bound %d: %,d bytes, %.1f ns per lookup%n",
+                    codec.getUpperBound(), bytes, nanos);
+        }
+    }
+}
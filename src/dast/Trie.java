@@ -1,14 +1,26 @@
 package dast;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.function.Function;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  *
@@ -20,6 +32,27 @@ public class Trie<T> {
 
     private final toBoundedIntArray<T> map;
 
+    /**
+     * The map, if it can hand out digits one at a time, null otherwise.
+     */
+    private final DigitCodec<T> codec;
+
+    /**
+     * Walks the digits of keys the map has already turned into arrays.
+     */
+    private final DigitCodec<int[]> digits;
+
+    /**
+     * The number of digits in the alphabet.
+     */
+    private final int bound;
+
+    /**
+     * Does this trie collapse chains of single child nodes into a single
+     * node whose edge is labeled with the whole run of digits.
+     */
+    private final boolean compressed;
+
     private TrieNode root;
 
     /**
@@ -44,17 +77,49 @@ public class Trie<T> {
     }
 
     /**
-     * Does the trie contain this sequence of digits.
+     * Does the trie contain an element, given in some form other than T. The
+     * trie is walked as the digits arrive, so nothing is allocated. For
+     * example, a trie of Strings built with a SymbolCodec can look up a
+     * StringBuilder with the codec's chars().
+     *
+     * @param <K> The form the element is given in.
+     * @param key The element.
+     * @param codec Gives the digits of key, the same digits the trie's own
+     * map would give.
+     * @return True if the trie contains key, false otherwise.
+     */
+    public <K> boolean contains(K key, DigitCodec<K> codec) {
+        TrieNode n = find(key, codec);
+        return n != null && n.isTerminal();
+    }
+
+    /**
+     * The node a key ends at, whether or not the key is an element.
      *
-     * @param digits
-     * @return
+     * @param <K> The form the key is given in.
+     * @param key The key.
+     * @param codec Gives the digits of key.
+     * @return The node the key ends at, or null if it ends at no node.
      */
-    private boolean contains(int[] digits) {
+    private <K> TrieNode find(K key, DigitCodec<K> codec) {
         TrieNode n = root;
-        for (int digit : digits)
-            if (root.hasNext(digit)) root = root.next(digit);
-            else return false;
-        return root.isTerminal();
+        for (int i = 0, length = codec.length(key); i < length;
+                i += n.runLength()) {
+            int digit = codec.probe(key, i++);
+            if (digit < 0 || (n = n.child(digit)) == null) return null;
+            if (n.match(key, codec, i, length) < n.runLength()) return null;
+        }
+        return n;
+    }
+
+    /**
+     * The node a key ends at, whether or not the key is an element.
+     *
+     * @param key The key.
+     * @return The node the key ends at, or null if it ends at no node.
+     */
+    TrieNode find(T key) {
+        return codec != null ? find(key, codec) : find(map.apply(key), digits);
     }
 
     /**
@@ -64,17 +129,42 @@ public class Trie<T> {
      * @return True if the trie contains key, false otherwise.
      */
     public boolean contains(T key) {
-        return contains(map.apply(key));
+        if (codec != null) return contains(key, codec);
+        return contains(map.apply(key), digits);
     }
 
     /**
      * Inserts a word into the trie.
      *
-     * @param digits The digits, or letters of the word.
+     * @param <K> The form the word is given in.
+     * @param key The word.
+     * @param codec Gives the digits, or letters of the word.
      */
-    private void insert(int[] digits) {
+    private <K> void insert(K key, DigitCodec<K> codec) {
         TrieNode n = root;
-        for (int digit : digits) n = n.next(digit);
+        for (int i = 0, length = codec.length(key); i < length;) {
+            int digit = codec.digit(key, i++);
+            TrieNode child = n.child(digit);
+            if (child == null) {
+                n = n.setNext(digit, bound);
+                if (compressed && i < length) {
+                    int[] run = new int[length - i];
+                    for (int j = 0; j < run.length; j++)
+                        run[j] = codec.digit(key, i + j);
+                    n.setRun(run);
+                    i = length;
+                }
+                continue;
+            }
+            int matched = child.match(key, codec, i, length);
+            if (matched < child.runLength()) {
+                // A digit outside the alphabet is rejected before the split.
+                if (i + matched < length) codec.digit(key, i + matched);
+                child.split(matched, bound);
+            }
+            i += matched;
+            n = child;
+        }
         n.setTerminal(true);
     }
 
@@ -84,7 +174,8 @@ public class Trie<T> {
      * @param element
      */
     public void insert(T element) {
-        insert(map.apply(element));
+        if (codec != null) insert(element, codec);
+        else insert(map.apply(element), digits);
     }
     
     /**
@@ -96,21 +187,149 @@ public class Trie<T> {
     }
 
     /**
-     * Deletes a word from the trie and removes unnescesary nodes.
+     * Looks up or inserts many keys in one pass. The nodes on the path of
+     * the last key are kept on a stack with the number of digits leading to
+     * each, so each key only walks down from where its path leaves the last
+     * key's, rather than from the root. The digits of each key are read into
+     * a buffer once, so finding where it leaves the last key is a single
+     * comparison of two arrays. Any order works, but the keys share the most
+     * with the keys before them when they are sorted.
      *
-     * @param digits The digits of the word being removed.
+     * @param <K> The form the keys are given in.
+     * @param keys The keys.
+     * @param codec Gives the digits of the keys.
+     * @param insert Should the keys be inserted rather than looked up.
+     * @return For each key, whether it is in the trie, or null when
+     * inserting.
      */
-    private void delete(int[] digits) {
-        LinkedList<TrieNode> path = new LinkedList<>();
-        path.add(root);
-        for (int digit : digits) path.add(path.getLast().next(digit));
-        path.getLast().setTerminal(false);
-        for (int i = digits.length - 1; i >= 0 && !path.getLast().hasNext(); i--)
-            if (!path.getLast().hasNext() && !path.getLast().isTerminal()) {
-                path.removeLast();
-                path.getLast().deleteNext(digits[i]);
+    private <K> boolean[] batch(List<K> keys, DigitCodec<K> codec,
+            boolean insert) {
+        boolean[] found = insert ? null : new boolean[keys.size()];
+        TrieNode[] nodes = new TrieNode[16];
+        int[] ends = new int[16];
+        nodes[0] = root;
+        int depth = 1;
+
+        int[] key = new int[16], prev = new int[16];
+        int prevLength = 0;
+        for (int k = 0; k < keys.size(); k++) {
+            K element = keys.get(k);
+            int length = codec.length(element);
+            if (key.length < length) key = new int[2 * length];
+            for (int i = 0; i < length; i++)
+                key[i] = insert ? codec.digit(element, i)
+                        : codec.probe(element, i);
+
+            int common = Arrays.mismatch(key, 0, length, prev, 0, prevLength);
+            if (common < 0) common = length;
+            while (ends[depth - 1] > common) nodes[--depth] = null;
+
+            TrieNode n = nodes[depth - 1];
+            boolean present = true;
+            for (int i = ends[depth - 1]; i < length;) {
+                int digit = key[i++];
+                TrieNode child = digit < 0 ? null : n.child(digit);
+                if (child == null) {
+                    if (!insert) {
+                        present = false;
+                        break;
+                    }
+                    child = n.setNext(digit, bound);
+                    if (compressed && i < length) {
+                        child.setRun(Arrays.copyOfRange(key, i, length));
+                        i = length;
+                    }
+                } else {
+                    int matched = child.match(key, digits, i, length);
+                    if (matched < child.runLength()) {
+                        if (!insert) {
+                            present = false;
+                            break;
+                        }
+                        child.split(matched, bound);
+                    }
+                    i += matched;
+                }
+                n = child;
+                if (depth == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, depth * 2);
+                    ends = Arrays.copyOf(ends, depth * 2);
+                }
+                nodes[depth] = n;
+                ends[depth++] = i;
             }
+            if (insert) n.setTerminal(true);
+            else found[k] = present && n.isTerminal();
 
+            int[] swap = prev;
+            prev = key;
+            key = swap;
+            prevLength = length;
+        }
+        return found;
+    }
+
+    /**
+     * Looks up many elements in one pass, each walking down only from where
+     * its path leaves the path of the element before it. Sorted elements
+     * share the most with the elements before them, but any order gives the
+     * right answers.
+     *
+     * @param sorted The elements, best sorted.
+     * @return For each element, whether the trie contains it.
+     */
+    public boolean[] containsAll(List<T> sorted) {
+        if (codec != null) return batch(sorted, codec, false);
+        return batch(sorted.stream().map(map).toList(), digits, false);
+    }
+
+    /**
+     * Inserts many elements in one pass, each walking down only from where
+     * its path leaves the path of the element before it.
+     *
+     * @param sorted The elements, best sorted.
+     */
+    public void insertAll(List<T> sorted) {
+        if (codec != null) batch(sorted, codec, true);
+        else batch(sorted.stream().map(map).toList(), digits, true);
+    }
+
+    /**
+     * Deletes a word from the trie and removes unnescesary nodes. On the way
+     * down it remembers the deepest node that has to stay, being the root,
+     * terminal or branching, so the chain of nodes that only led to the word
+     * can be cut off in one step.
+     *
+     * @param <K> The form the word is given in.
+     * @param key The word being removed.
+     * @param codec Gives the digits of the word.
+     */
+    private <K> void delete(K key, DigitCodec<K> codec) {
+        TrieNode n = root, cut = root;
+        int cutDigit = -1;
+        for (int i = 0, length = codec.length(key); i < length;) {
+            int digit = codec.probe(key, i);
+            TrieNode next = digit < 0 ? null : n.child(digit);
+            if (next == null
+                    || next.match(key, codec, i + 1, length) < next.runLength())
+                return;
+            if (n == root || n.isTerminal() || n.size() > 1) {
+                cut = n;
+                cutDigit = digit;
+            }
+            i += 1 + next.runLength();
+            n = next;
+        }
+        if (!n.isTerminal()) return;
+        n.setTerminal(false);
+
+        if (n.hasNext()) {
+            if (compressed && n != root) n.mergeChild();
+            return;
+        }
+        if (n == root) return;
+        cut.deleteNext(cutDigit);
+        if (compressed && cut != root) cut.mergeChild();
     }
 
     /**
@@ -119,22 +338,115 @@ public class Trie<T> {
      * @param element The element to be deleted.
      */
     public void delete(T element) {
-        delete(map.apply(element));
+        if (codec != null) delete(element, codec);
+        else delete(map.apply(element), digits);
     }
 
     /**
-     * All the elements that start with prefix.
+     * The digits leading to the node a prefix ends in. If the prefix ends
+     * part way through the run of a node, the rest of the run is included.
      *
-     * @param prefix The prefix of the desired elements.
-     * @return
+     * @param <K> The form the prefix is given in.
+     * @param prefix The prefix.
+     * @param codec Gives the digits of the prefix.
+     * @return The digits leading to the node the prefix ends in, or null if
+     * no element starts with prefix.
      */
-    private Stream<int[]> all(int[] prefix) {
+    private <K> int[] pathTo(K prefix, DigitCodec<K> codec) {
+        int length = codec.length(prefix);
+        int[] path = new int[length];
         TrieNode n = root;
-        for (int digit : prefix)
-            if (n.hasNext()) n = n.next(digit);
-            else return Stream.of();
+        for (int i = 0; i < length; i += n.runLength()) {
+            path[i] = codec.probe(prefix, i);
+            if (path[i] < 0 || (n = n.child(path[i++])) == null) return null;
+            int matched = n.match(prefix, codec, i, length);
+            if (i + matched < length && matched < n.runLength()) return null;
+            if (i + n.runLength() > path.length)
+                path = Arrays.copyOf(path, i + n.runLength());
+            for (int j = 0; j < n.runLength(); j++) path[i + j] = n.run(j);
+        }
+        return path;
+    }
 
-        return n.allChildren(IntStream.of(prefix).boxed().toList());
+    /**
+     * The digits leading to the node a prefix ends in, with the rest of the
+     * run of that node if the prefix ends part way through it.
+     *
+     * @param prefix The prefix.
+     * @return The digits leading to the node the prefix ends in, or null if
+     * no element starts with prefix.
+     */
+    int[] pathTo(T prefix) {
+        return codec != null ? pathTo(prefix, codec)
+                : pathTo(map.apply(prefix), digits);
+    }
+
+    /**
+     * The nodes on the way down to a key, the root first. The trace stops
+     * early if the key leaves the trie, and its last node may be one whose
+     * run the key only partly follows.
+     *
+     * @param <K> The form the key is given in.
+     * @param key The key.
+     * @param codec Gives the digits of the key.
+     * @return The nodes on the way down to key.
+     */
+    private <K> ArrayList<TrieNode> trace(K key, DigitCodec<K> codec) {
+        ArrayList<TrieNode> nodes = new ArrayList<>();
+        TrieNode n = root;
+        nodes.add(n);
+        for (int i = 0, length = codec.length(key); i < length;) {
+            int digit = codec.probe(key, i++);
+            if (digit < 0 || (n = n.child(digit)) == null) break;
+            nodes.add(n);
+            int matched = n.match(key, codec, i, length);
+            if (matched < n.runLength()) break;
+            i += matched;
+        }
+        return nodes;
+    }
+
+    /**
+     * The nodes on the way down to a key, the root first.
+     *
+     * @param key The key.
+     * @return The nodes on the way down to key, as far as the trie follows
+     * it.
+     */
+    ArrayList<TrieNode> trace(T key) {
+        return codec != null ? trace(key, codec)
+                : trace(map.apply(key), digits);
+    }
+
+    /**
+     * The node at the end of a path of digits.
+     *
+     * @param path The digits, which must lead exactly to a node, as those
+     * returned by pathTo do.
+     * @return The node.
+     */
+    TrieNode nodeAt(int[] path) {
+        TrieNode n = root;
+        for (int i = 0; i < path.length; i += n.runLength())
+            n = n.child(path[i++]);
+        return n;
+    }
+
+    /**
+     * All the elements that start with prefix, including prefix itself if it
+     * is an element. The elements are found lazily, in order, as the stream
+     * is consumed.
+     *
+     * @param <K> The form the prefix is given in.
+     * @param prefix The prefix of the desired elements.
+     * @param codec Gives the digits of the prefix.
+     * @return The elements that start with prefix.
+     */
+    private <K> Stream<int[]> all(K prefix, DigitCodec<K> codec) {
+        int[] path = pathTo(prefix, codec);
+        if (path == null) return Stream.of();
+        return StreamSupport.stream(new TrieSpliterator(nodeAt(path), path),
+                false);
     }
 
     /**
@@ -143,7 +455,9 @@ public class Trie<T> {
      * @return All the elements in the trie with the desired prefix.
      */
     public Stream<T> all(T prefix) {
-        return all(map.apply(prefix)).map(array -> map.inverse(array));
+        Stream<int[]> all = codec != null ? all(prefix, codec)
+                : all(map.apply(prefix), digits);
+        return all.map(array -> map.inverse(array));
     }
     
     /**
@@ -151,7 +465,243 @@ public class Trie<T> {
      * @return All the elements in the trie with the desired prefix.
      */
     public Stream<T> all() {
-        return all(new int[0]).map(array -> map.inverse(array));
+        return all(new int[0], digits).map(array -> map.inverse(array));
+    }
+
+    /**
+     * The elements after a key, in order, starting from the key's place in
+     * the trie rather than from the first element. The key need not be in
+     * the trie.
+     *
+     * @param key The key.
+     * @param inclusive Should the key itself be included if it is an
+     * element.
+     * @return The elements after key, or at or after it, in order.
+     */
+    private Stream<int[]> tail(T key, boolean inclusive) {
+        return StreamSupport.stream(
+                TrieSpliterator.seek(root, map.apply(key), inclusive), false);
+    }
+
+    /**
+     * The first element at or after a key, in the order of all().
+     *
+     * @param key The key, which need not be in the trie.
+     * @return The least element at least key, or null if there is none.
+     */
+    public T ceiling(T key) {
+        return tail(key, true).findFirst().map(array -> map.inverse(array))
+                .orElse(null);
+    }
+
+    /**
+     * The first element after a key, in the order of all().
+     *
+     * @param key The key, which need not be in the trie.
+     * @return The least element greater than key, or null if there is none.
+     */
+    public T higher(T key) {
+        return tail(key, false).findFirst().map(array -> map.inverse(array))
+                .orElse(null);
+    }
+
+    /**
+     * The elements from one key up to another, in the order of all(), found
+     * lazily. The walk starts where lo would be and stops at hi, so the
+     * elements outside the range are never visited.
+     *
+     * @param lo The least key of the range, included if it is an element.
+     * @param hi The key the range stops before.
+     * @return The elements at least lo and less than hi, in order.
+     */
+    public Stream<T> range(T lo, T hi) {
+        int[] end = map.apply(hi);
+        return tail(lo, true).takeWhile(array -> Arrays.compare(array, end) < 0)
+                .map(array -> map.inverse(array));
+    }
+
+    /**
+     * All the elements in the trie that an automaton accepts, in order. The
+     * trie is walked in step with the automaton, and subtrees in which it can
+     * accept nothing are never visited. The elements are found lazily.
+     *
+     * @param automaton Decides which elements are wanted.
+     * @return The elements the automaton accepts.
+     */
+    public Stream<T> matching(Automaton automaton) {
+        if (automaton.start() < 0) return Stream.empty();
+        return StreamSupport.stream(new AutomatonSpliterator(root, automaton),
+                false).map(array -> map.inverse(array));
+    }
+
+    /**
+     * The shape of this trie and an estimate of its memory. Walks every
+     * node, so it takes time in proportion to the size of the trie.
+     *
+     * @return The statistics of this trie.
+     */
+    public TrieStats stats() {
+        return new TrieStats(root, bound);
+    }
+
+    /**
+     * Writes the nodes of this trie, so readFrom can rebuild it without
+     * running the map on any element. The nodes are written in preorder,
+     * each as its number of children and whether it is terminal, its run,
+     * and before each child the gap from the previous child's digit, all as
+     * variable length integers. Only the digits are written: the scores of a
+     * WeightedTrie or the values of a TrieMap are not.
+     *
+     * @param out Where the trie is written. It is not closed.
+     * @throws IOException If out can not be written to.
+     */
+    public void writeTo(WritableByteChannel out) throws IOException {
+        TrieFile.write(root, bound, compressed, out);
+    }
+
+    /**
+     * Writes the nodes of this trie to a file, as writeTo(out) does.
+     *
+     * @param file The file, which is replaced if it exists.
+     * @throws IOException If the file can not be written.
+     */
+    public void writeTo(Path file) throws IOException {
+        try (FileChannel out = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeTo(out);
+        }
+    }
+
+    /**
+     * Rebuilds a trie written by writeTo, reading the nodes in one pass.
+     *
+     * @param <T> The elements of the trie.
+     * @param in Where the trie was written. It is not closed.
+     * @param map The map the trie was built with, or one with the same
+     * digits.
+     * @return The trie.
+     * @throws IOException If in can not be read, does not hold a trie, or
+     * holds one with a different bound than map's.
+     */
+    public static <T> Trie<T> readFrom(ReadableByteChannel in,
+            toBoundedIntArray<T> map) throws IOException {
+        ByteBuffer buffer = TrieFile.buffer();
+        boolean compressed = TrieFile.readHeader(in, buffer,
+                map.getUpperBound());
+        Trie<T> trie = new Trie<>(map, compressed);
+        TrieFile.readNodes(trie.root, trie.bound, in, buffer);
+        return trie;
+    }
+
+    /**
+     * Rebuilds a trie written to a file by writeTo.
+     *
+     * @param <T> The elements of the trie.
+     * @param file The file.
+     * @param map The map the trie was built with, or one with the same
+     * digits.
+     * @return The trie.
+     * @throws IOException If the file can not be read or does not hold a
+     * trie with map's bound.
+     */
+    public static <T> Trie<T> readFrom(Path file, toBoundedIntArray<T> map)
+            throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            return readFrom(in, map);
+        }
+    }
+
+    /**
+     * The alphabet of this trie, for patterns.
+     *
+     * @return The codec of this trie.
+     * @throws IllegalStateException If the trie is not built with a
+     * SymbolCodec.
+     */
+    private SymbolCodec symbols() {
+        if (!(map instanceof SymbolCodec))
+            throw new IllegalStateException("Patterns need a trie built with "
+                    + "a SymbolCodec.");
+        return (SymbolCodec) map;
+    }
+
+    /**
+     * All the elements matching a regular expression, in order. The walk
+     * goes down only branches the expression can still match. See
+     * PatternAutomaton for the syntax.
+     *
+     * @param regex The regular expression.
+     * @return The elements matching regex.
+     * @throws IllegalStateException If the trie is not built with a
+     * SymbolCodec.
+     */
+    public Stream<T> match(String regex) {
+        return matching(PatternAutomaton.regex(regex, symbols()));
+    }
+
+    /**
+     * All the elements matching a glob, in which '?' is any character and
+     * '*' any run of characters, in order.
+     *
+     * @param glob The glob.
+     * @return The elements matching glob.
+     * @throws IllegalStateException If the trie is not built with a
+     * SymbolCodec.
+     */
+    public Stream<T> glob(String glob) {
+        return matching(PatternAutomaton.glob(glob, symbols()));
+    }
+
+    /**
+     * All the elements in the trie within some number of edits of a key,
+     * where an edit inserts, deletes or replaces a single digit. The key need
+     * not be in the trie.
+     *
+     * @param key The key.
+     * @param maxEdits The most edits an element may be from the key.
+     * @return The elements within maxEdits edits of key, in order.
+     */
+    public Stream<T> fuzzy(T key, int maxEdits) {
+        return matching(new LevenshteinAutomaton(map.apply(key), maxEdits));
+    }
+
+    /**
+     * The map from elements of this trie to their digits.
+     *
+     * @return The map this trie was built with.
+     */
+    public toBoundedIntArray<T> getMap() {
+        return map;
+    }
+
+    /**
+     * The root of this trie.
+     *
+     * @return The root node.
+     */
+    TrieNode root() {
+        return root;
+    }
+
+    /**
+     * The number of digits in the alphabet.
+     *
+     * @return The upper bound on the digits.
+     */
+    int bound() {
+        return bound;
+    }
+
+    /**
+     * Compiles this trie into a read only double array trie, which answers
+     * contains and prefix queries with two array reads per digit and holds
+     * no object graph. Later changes to this trie are not reflected in it.
+     *
+     * @return A double array trie holding the same elements as this trie.
+     */
+    public DoubleArrayTrie<T> compile() {
+        return new DoubleArrayTrie<>(root, map, bound);
     }
 
     /**
@@ -169,8 +719,47 @@ public class Trie<T> {
      * 'a' maps to 0.
      */
     public Trie(toBoundedIntArray<T> map) {
+        this(map, false);
+    }
+
+    /**
+     * The constructor.
+     *
+     * @param map A one to one function that maps whatever objects you want to
+     * store in the trie to a sequence of integers from 0 to its upper bound.
+     * @param compressed Should chains of single child nodes be collapsed into
+     * one node whose edge is labeled with the whole run of digits. This saves
+     * nodes and pointer hops when keys have long unique tails.
+     */
+    public Trie(toBoundedIntArray<T> map, boolean compressed) {
+        this(map, compressed, new TrieNode());
+    }
+
+    /**
+     * A constructor for tries whose nodes carry more than the digits. Every
+     * node of the trie is made by the root's newNode, so they are all of the
+     * root's kind.
+     *
+     * @param map The map from elements to their digits.
+     * @param compressed Should chains of single child nodes be collapsed.
+     * @param root An empty root.
+     */
+    Trie(toBoundedIntArray<T> map, boolean compressed, TrieNode root) {
         this.map = map;
-        this.root = new TrieNode(map.getUpperBound());
+        this.codec = map instanceof DigitCodec ? (DigitCodec<T>) map : null;
+        this.bound = map.getUpperBound();
+        this.digits = DigitCodec.array(bound);
+        this.compressed = compressed;
+        this.root = root;
+    }
+
+    /**
+     * Does this trie collapse chains of single child nodes.
+     *
+     * @return True if this trie is path compressed, false otherwise.
+     */
+    public boolean isCompressed() {
+        return compressed;
     }
 
     /**
@@ -181,29 +770,19 @@ public class Trie<T> {
      * letters.
      */
     public static Trie<String> wordTrie() {
-        return new Trie(new toBoundedIntArray<String>() {
-            @Override
-            public String inverse(int[] array) {
-                return Arrays.stream(array)
-                        .map(
-                                i -> i <= 'Z' - 'A' ? i + 'A' : i - ('Z' - 'A') - 1 + 'a'
-                        ).mapToObj(i -> Character.toString((char) i)).
-                        collect(Collectors.joining());
-            }
-
-            @Override
-            public int getUpperBound() {
-                return apply("z")[0] + 1;
-            }
+        return wordTrie(false);
+    }
 
-            @Override
-            public int[] apply(String string) {
-                return string.chars().map(
-                        c -> c >= 'A' && c <= 'Z' ? c - 'A'
-                        : c - 'a' + 'Z' - 'A' + 1
-                ).toArray();
-            }
-        });
+    /**
+     * A trie designed to contain single words, no spaces, of upper and lower
+     * case letter.
+     *
+     * @param compressed Should the trie be path compressed.
+     * @return A trie designed to hold single words of upper and lower case
+     * letters.
+     */
+    public static Trie<String> wordTrie(boolean compressed) {
+        return new Trie<>(SymbolCodec.letters(), compressed);
     }
 
     /**
@@ -211,49 +790,86 @@ public class Trie<T> {
      * @return A Trie designed to hold integers.
      */
     public static Trie<Integer> intTrie() {
-        return new Trie<>(new toBoundedIntArray<Integer>() {
-            @Override
-            public Integer inverse(int[] array) {
-                int inverse = 0, pow = 1;
-                for(int i = 0; i < array.length; i++, pow *= 10)
-                    inverse += array[i] * pow;
-                if(array[array.length - 1] == 0) inverse *= -1;
-                return inverse;
-            }
-
-            @Override
-            public int getUpperBound() {
-                return 10;
-            }
+        return intTrie(false);
+    }
 
-            /**
-             * The number of digits in a number.  Note that a negative
-             * counts as a digit.
-             * @param i The number for whom the number of digits is desired.
-             * @return The number of digits, base 10, of i.
-             */
-            private int numDigits(int i) {
-                int numDigits = i < 0 ? 1 : 0;
-
-                while (Math.abs(i) > 0) {
-                    i /= 10;
-                    numDigits++;
-                }
-                return numDigits;
-            }
+    /**
+     * A trie designed to hold integers.
+     * @param compressed Should the trie be path compressed.
+     * @return A Trie designed to hold integers.
+     */
+    public static Trie<Integer> intTrie(boolean compressed) {
+        return new Trie<>(DigitCodec.decimal(), compressed);
+    }
 
-            @Override
-            public int[] apply(Integer t) {
-                int[] apply = new int[numDigits(t)];
-                
-                for (int i = 0; i < apply.length; i++, t /= 10)
-                    apply[i] = Math.abs(t % 10);
+    /**
+     * A trie of integers written in a power of two radix, in numeric order.
+     * See DigitCodec.radix.
+     *
+     * @param radix 2, 4, 16 or 256.
+     * @param compressed Should the trie be path compressed.
+     * @return A Trie designed to hold integers.
+     */
+    public static Trie<Integer> intTrie(int radix, boolean compressed) {
+        return new Trie<>(DigitCodec.radix(radix), compressed);
+    }
 
-                return apply;
-            }
-        });
+    /**
+     * A trie of longs written in a power of two radix, in numeric order.
+     * See DigitCodec.radixLong.
+     *
+     * @param radix 2, 4, 16 or 256.
+     * @param compressed Should the trie be path compressed.
+     * @return A Trie designed to hold longs.
+     */
+    public static Trie<Long> longTrie(int radix, boolean compressed) {
+        return new Trie<>(DigitCodec.radixLong(radix), compressed);
     }
     
+    /**
+     * A trie of byte arrays, with a digit for each byte. Keys that come as
+     * bytes, such as off the wire, are stored and looked up as they are.
+     * Byte buffers can be looked up with contains and DigitCodec.byteBuffer().
+     *
+     * @param compressed Should chains of single child nodes be collapsed into
+     * one node.
+     * @return A trie of byte arrays.
+     */
+    public static Trie<byte[]> byteTrie(boolean compressed) {
+        return new Trie<>(DigitCodec.bytes(), compressed);
+    }
+
+    /**
+     * A trie of byte arrays, with a digit for each byte.
+     *
+     * @return A trie of byte arrays.
+     */
+    public static Trie<byte[]> byteTrie() {
+        return byteTrie(false);
+    }
+
+    /**
+     * A trie of any strings, stored as the bytes of their UTF-8 encoding.
+     * Encoded strings can be looked up without decoding them, with contains
+     * and DigitCodec.bytes() or DigitCodec.byteBuffer().
+     *
+     * @param compressed Should chains of single child nodes be collapsed into
+     * one node.
+     * @return A trie of strings.
+     */
+    public static Trie<String> utf8Trie(boolean compressed) {
+        return new Trie<>(toBoundedIntArray.utf8(), compressed);
+    }
+
+    /**
+     * A trie of any strings, stored as the bytes of their UTF-8 encoding.
+     *
+     * @return A trie of strings.
+     */
+    public static Trie<String> utf8Trie() {
+        return utf8Trie(false);
+    }
+
     /**
      * Tests the wordTrie.
      */
@@ -266,6 +882,21 @@ public class Trie<T> {
         strings.delete("hat");
         
         strings.all("").forEach(System.out::println);
+        System.out.print(strings.stats());
+    }
+    
+    /**
+     * Tests a path compressed wordTrie.
+     */
+    public static void testCompressedWordTrie(){
+        
+        Trie<String> strings = Trie.wordTrie(true);
+        
+        strings.insert("ham", "hamster", "hamsters", "bob");
+        
+        strings.delete("hamster");
+        
+        strings.all("ha").forEach(System.out::println);
     }
     
     /**
@@ -281,6 +912,74 @@ public class Trie<T> {
         numbers.all(5).forEach(System.out::println);
     }
     
+    /**
+     * Tests fuzzy lookups.
+     */
+    public static void testFuzzy(){
+        
+        Trie<String> strings = Trie.wordTrie(true);
+        
+        strings.insert("ham", "hamster", "hat", "hats", "bob", "harm");
+        
+        strings.fuzzy("ham", 1).forEach(System.out::println);
+        strings.glob("h?t*").forEach(System.out::println);
+        strings.match("ha(m|r)+.*").forEach(System.out::println);
+        System.out.println(strings.glob("h1*").count() + " "
+                + strings.match("1").count());
+    }
+    
+    /**
+     * Tests the utf8Trie.
+     */
+    public static void testUtf8Trie(){
+        
+        Trie<String> strings = Trie.utf8Trie(true);
+        
+        strings.insert("naïve", "naive", "ナイーブ", "e-mail", "email");
+        
+        strings.delete("email");
+        
+        strings.all("na").forEach(System.out::println);
+        System.out.println(strings.contains(
+                ByteBuffer.wrap("ナイーブ".getBytes(StandardCharsets.UTF_8)),
+                DigitCodec.byteBuffer()));
+    }
+    
+    /**
+     * Tests the ordered queries.
+     */
+    public static void testRange(){
+        
+        Trie<String> strings = Trie.wordTrie(true);
+        
+        strings.insert("apple", "banana", "cherry", "date", "fig");
+        
+        System.out.println(strings.ceiling("c") + " " + strings.higher("date"));
+        strings.range("b", "e").forEach(System.out::println);
+    }
+
+    /**
+     * Tests writing a trie out and reading it back.
+     */
+    public static void testWriteRead(){
+        
+        Trie<String> strings = Trie.wordTrie(true);
+        
+        strings.insert("ham", "hamster", "hat", "bob", "");
+        
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            strings.writeTo(Channels.newChannel(bytes));
+            Trie<String> read = Trie.readFrom(Channels.newChannel(
+                    new ByteArrayInputStream(bytes.toByteArray())),
+                    SymbolCodec.letters());
+            System.out.println(bytes.size() + " bytes: "
+                    + read.all().toList());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+    
     /**
      * Testing some of the methods here.
      * @param args Not used.
@@ -288,144 +987,279 @@ public class Trie<T> {
     public static void main(String[] args) {
         
         testWordTrie();
+        testCompressedWordTrie();
         testNumTrie();
+        testFuzzy();
+        testUtf8Trie();
+        testRange();
+        testWriteRead();
         
     }
 }
 
 /**
- * A node.
+ * The binary form of a trie, for Trie.writeTo and Trie.readFrom. A header
+ * holds a magic number, the version, the bound and whether the trie is
+ * compressed. Then come the nodes in preorder, each as the variable length
+ * integers: its number of children times two, plus one if it is terminal;
+ * the length of its run; the digits of its run; and then for each child the
+ * child's digit less the previous child's digit less one, followed by the
+ * child. Nodes are walked with an explicit stack, so deep tries do not
+ * overflow the call stack.
  */
-class TrieNode {
+class TrieFile {
 
-    private final TrieNode[] next;
-    private boolean terminal;
+    private static final int MAGIC = 0x54726965, VERSION = 1;
 
     /**
-     * The constructor
+     * A buffer for reading or writing.
      *
-     * @param numChildren The number of available digits or children this nodes
-     * in this tree will have. This should be consistent for all nodes in this
-     * tree.
-     * @param terminal Is this a terminal node.
+     * @return An empty buffer.
      */
-    public TrieNode(int numChildren) {
-        this.next = new TrieNode[numChildren];
-        this.terminal = false;
+    static ByteBuffer buffer() {
+        return ByteBuffer.allocateDirect(1 << 16);
     }
 
     /**
-     * Is this node the final digit of a value being stored.
+     * Writes a trie.
      *
-     * @return True if it is, false otherwise.
+     * @param root The root of the trie.
+     * @param bound The number of digits in the alphabet.
+     * @param compressed Is the trie path compressed.
+     * @param out Where to write it.
+     * @throws IOException If out can not be written to.
      */
-    public boolean isTerminal() {
-        return terminal;
+    static void write(TrieNode root, int bound, boolean compressed,
+            WritableByteChannel out) throws IOException {
+        ByteBuffer buffer = buffer();
+        buffer.putInt(MAGIC).put((byte) VERSION);
+        putVarint(buffer, bound);
+        buffer.put((byte) (compressed ? 1 : 0));
+        putNode(buffer, root, out);
+
+        ArrayList<TrieNode> stack = new ArrayList<>();
+        int[] last = new int[16];
+        stack.add(root);
+        last[0] = -1;
+        while (!stack.isEmpty()) {
+            int top = stack.size() - 1;
+            TrieNode n = stack.get(top);
+            int digit = n.nextDigit(last[top] + 1);
+            if (digit < 0) {
+                stack.remove(top);
+                continue;
+            }
+            if (buffer.remaining() < 5) drain(buffer, out);
+            putVarint(buffer, digit - last[top] - 1);
+            last[top] = digit;
+            TrieNode child = n.child(digit);
+            putNode(buffer, child, out);
+            stack.add(child);
+            if (stack.size() > last.length)
+                last = Arrays.copyOf(last, last.length * 2);
+            last[top + 1] = -1;
+        }
+        drain(buffer, out);
     }
 
     /**
-     * The next node with the following index.
+     * Writes a node, which is everything but its children. Runs may be long,
+     * so the buffer is drained as the run is written.
      *
-     * @param i The index of the next node.
-     * @return The next node with value and index i.
+     * @param buffer The buffer to write to.
+     * @param n The node.
+     * @param out Where the buffer is drained to.
+     * @throws IOException If out can not be written to.
      */
-    public TrieNode next(int i) {
-        if (hasNext(i)) return next[i];
-        else return setNext(i);
+    private static void putNode(ByteBuffer buffer, TrieNode n,
+            WritableByteChannel out) throws IOException {
+        if (buffer.remaining() < 2 * 5) drain(buffer, out);
+        putVarint(buffer, n.size() * 2 + (n.isTerminal() ? 1 : 0));
+        putVarint(buffer, n.runLength());
+        for (int j = 0; j < n.runLength(); j++) {
+            if (buffer.remaining() < 5) drain(buffer, out);
+            putVarint(buffer, n.run(j));
+        }
     }
 
     /**
-     * Is the proffered index a child of this node?
+     * Writes out what is in a buffer, leaving it empty.
      *
-     * @param i The desired child.
-     * @return True if the proffered index is a child of this node, false
-     * otherwise.
+     * @param buffer The buffer.
+     * @param out Where to write it.
+     * @throws IOException If out can not be written to.
      */
-    public boolean hasNext(int i) {
-        return next[i] != null;
-    }
-
-    public void setTerminal(boolean terminal) {
-        this.terminal = terminal;
+    private static void drain(ByteBuffer buffer, WritableByteChannel out)
+            throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) out.write(buffer);
+        buffer.clear();
     }
 
     /**
-     * expands the tree at the i'th index.
+     * Writes an integer that is not negative in 7 bit groups, least
+     * significant first, the high bit of each byte set if more follow.
      *
-     * @param i The index the tree should be expanded at.
+     * @param buffer Where to write it.
+     * @param value The integer.
      */
-    public TrieNode setNext(int i) {
-        return next[i] = new TrieNode(next.length);
+    private static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
     }
 
     /**
-     * Does this node have any children.
+     * Reads the header of a trie.
      *
-     * @return True if this node has any children, false otherwise.
+     * @param in Where the trie was written.
+     * @param buffer An empty buffer to read through.
+     * @param bound The bound the trie should have.
+     * @return Is the trie path compressed.
+     * @throws IOException If in can not be read or does not hold a trie with
+     * the bound.
      */
-    public boolean hasNext() {
-        return IntStream.range(0, next.length)
-                .parallel().anyMatch(i -> hasNext(i));
+    static boolean readHeader(ReadableByteChannel in, ByteBuffer buffer,
+            int bound) throws IOException {
+        buffer.flip();
+        fill(buffer, in, 5);
+        if (buffer.getInt() != MAGIC)
+            throw new IOException("Not a trie.");
+        int version = buffer.get();
+        if (version != VERSION)
+            throw new IOException("Unknown trie version " + version + ".");
+        int written = getVarint(buffer, in);
+        if (written != bound)
+            throw new IOException("The trie has bound " + written
+                    + " but the map has bound " + bound + ".");
+        fill(buffer, in, 1);
+        return buffer.get() != 0;
     }
 
     /**
-     * Deletes the next node.
+     * Reads the nodes of a trie.
      *
-     * @param nodeIndex The index of the node to be deleted.
+     * @param root The empty root to read them into.
+     * @param bound The number of digits in the alphabet.
+     * @param in Where the trie was written, after the header.
+     * @param buffer The buffer the header was read through.
+     * @throws IOException If in can not be read or holds a malformed trie.
      */
-    public void deleteNext(int nodeIndex) {
-        next[nodeIndex] = null;
+    static void readNodes(TrieNode root, int bound, ReadableByteChannel in,
+            ByteBuffer buffer) throws IOException {
+        ArrayList<TrieNode> stack = new ArrayList<>();
+        int[] last = new int[16], left = new int[16];
+        stack.add(root);
+        last[0] = -1;
+        left[0] = getNode(root, bound, in, buffer);
+        if (root.runLength() > 0)
+            throw new IOException("The root has a run.");
+        while (!stack.isEmpty()) {
+            int top = stack.size() - 1;
+            if (left[top] == 0) {
+                stack.remove(top);
+                continue;
+            }
+            left[top]--;
+            int gap = getVarint(buffer, in);
+            if (gap >= bound - last[top] - 1)
+                throw new IOException("The digit " + (last[top] + 1L + gap)
+                        + " is out of bounds.");
+            int digit = last[top] + 1 + gap;
+            last[top] = digit;
+            TrieNode child = root.newNode();
+            int children = getNode(child, bound, in, buffer);
+            stack.get(top).setNext(digit, child, bound);
+            stack.add(child);
+            if (stack.size() > last.length) {
+                last = Arrays.copyOf(last, last.length * 2);
+                left = Arrays.copyOf(left, left.length * 2);
+            }
+            last[top + 1] = -1;
+            left[top + 1] = children;
+        }
     }
 
     /**
-     * Copies a list and adds an element to the coppied list.
+     * Reads the header of a node into a node.
      *
-     * @param prefix The list to be copied.
-     * @param add The element to be added.
-     * @return A new list that is a copy of the old list with an added element.
+     * @param n The node.
+     * @param bound The number of digits in the alphabet.
+     * @param in Where the trie was written.
+     * @param buffer The buffer being read through.
+     * @return The number of children the node has.
+     * @throws IOException If in can not be read or holds a malformed node.
      */
-    private static LinkedList<Integer> copy(
-            List<Integer> prefix,
-            int add) {
-        LinkedList<Integer> prefixWithI = new LinkedList<>(prefix);
-        prefixWithI.add(add);
-        return prefixWithI;
+    private static int getNode(TrieNode n, int bound, ReadableByteChannel in,
+            ByteBuffer buffer) throws IOException {
+        int head = getVarint(buffer, in), children = head >>> 1;
+        if (children > bound)
+            throw new IOException("A node has " + children + " children.");
+        n.setTerminal((head & 1) != 0);
+        n.reserve(children, bound);
+        int length = getVarint(buffer, in);
+        if (length < 0)
+            throw new IOException("A run has length " + length + ".");
+        if (length > 0) {
+            int[] run = new int[Math.min(length, 1 << 10)];
+            for (int j = 0; j < length; j++) {
+                if (j == run.length)
+                    run = Arrays.copyOf(run, (int) Math.min(length, 2L * j));
+                if ((run[j] = getVarint(buffer, in)) < 0 || run[j] >= bound)
+                    throw new IOException("The digit " + run[j]
+                            + " is out of bounds.");
+            }
+            n.setRun(run);
+        }
+        return children;
     }
 
     /**
-     * Returns the proffered linked list appended to the stream.
+     * Reads an integer written by putVarint. At most 5 bytes are read, and
+     * the integer must fit in an int without going negative.
      *
-     * @param addTo The stream the linked likst should be added to as an int[].
-     * @param add The element to be added to the stream.
-     * @return The list appended as an int[] to the stream.
+     * @param buffer The buffer being read through.
+     * @param in Where more bytes come from when the buffer runs out.
+     * @return The integer, which is not negative.
+     * @throws IOException If in can not be read, ends first, or holds a
+     * number that is too long or too large.
      */
-    private static Stream<int[]> addNext(Stream<int[]> addTo,
-            LinkedList<Integer> add) {
-        return Stream.concat(
-                addTo,
-                Stream.of(add.stream().mapToInt(j -> j).toArray())
-        );
+    private static int getVarint(ByteBuffer buffer, ReadableByteChannel in)
+            throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (!buffer.hasRemaining()) fill(buffer, in, 1);
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                if (value > Integer.MAX_VALUE)
+                    throw new IOException("The number " + value
+                            + " is too large.");
+                return (int) value;
+            }
+        }
+        throw new IOException("A number is longer than 5 bytes.");
     }
 
     /**
-     * All the children of this node that are terminal.
+     * Reads more into a buffer that is being read from, until it has at
+     * least some number of bytes.
      *
-     * @param prefix The prefix to this node.
-     * @return A stream of all the children that are terminal to this node.
+     * @param buffer The buffer, ready to be read from.
+     * @param in Where more bytes come from.
+     * @param need The number of bytes needed.
+     * @throws IOException If in can not be read or ends first.
      */
-    public Stream<int[]> allChildren(List<Integer> prefix) {
-        Stream<int[]> allChildren = Stream.of();
-
-        for (int i = 0; i < next.length; i++)
-            if (hasNext(i)) {
-                LinkedList<Integer> iPlusPrefix = copy(prefix, i);
-                if (next(i).isTerminal())
-                    allChildren = addNext(allChildren, iPlusPrefix);
-                allChildren = Stream.concat(
-                        allChildren,
-                        next(i).allChildren(iPlusPrefix)
-                );
+    private static void fill(ByteBuffer buffer, ReadableByteChannel in,
+            int need) throws IOException {
+        buffer.compact();
+        while (buffer.position() < need)
+            if (in.read(buffer) < 0) {
+                buffer.flip();
+                throw new EOFException("The trie ends early.");
             }
-        return allChildren;
+        buffer.flip();
     }
 }
@@ -0,0 +1,328 @@
+package dast;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import tools.Benchmark;
+
+/**
+ * Builds a word trie from a large text file on several threads.
+ *
+ * The file is memory mapped a chunk at a time. The words of the file are
+ * split by their first digit into as many shards as there are threads, the
+ * ranges of first digits chosen from a sample of the file so the shards get
+ * about the same number of words. Each thread owns the trie of one shard.
+ * Threads take chunks in turn and tokenize them, handing each word to the
+ * queue of its shard in batches, and between chunks insert whatever is
+ * waiting in their own shard's queue, so no trie is ever touched by two
+ * threads. A thread out of chunks blocks on its queue until the others have
+ * tokenized theirs. Since the shards have different first digits, merging
+ * them is only a matter of hanging the children of every shard's root from
+ * one root.
+ *
+ * A word is a longest run of bytes that, read as ISO-8859-1 characters, are
+ * in the codec's alphabet. A word belongs to the chunk its first byte is in,
+ * and may run on into the next chunk by up to MAX_WORD bytes. A longer word
+ * is cut to its first MAX_WORD bytes and the rest of it is skipped.
+ *
+ * @author Dov Neimand
+ */
+public class TrieBuilder {
+
+    /**
+     * The nominal size of a chunk, in bytes.
+     */
+    private static final int CHUNK = 16 << 20;
+
+    /**
+     * The longest word, in bytes.
+     */
+    public static final int MAX_WORD = 1 << 16;
+
+    /**
+     * The number of words handed to a shard at a time.
+     */
+    private static final int BATCH = 4096;
+
+    private final SymbolCodec codec;
+    private final int threads;
+    private final boolean compressed;
+
+    private long words, nanos;
+
+    /**
+     * The constructor.
+     *
+     * @param codec The alphabet of the words.
+     * @param threads The number of threads, and of shards.
+     * @param compressed Should the trie be path compressed.
+     */
+    public TrieBuilder(SymbolCodec codec, int threads, boolean compressed) {
+        if (threads < 1)
+            throw new IllegalArgumentException("There must be a thread.");
+        this.codec = codec;
+        this.threads = threads;
+        this.compressed = compressed;
+    }
+
+    /**
+     * The digit of a byte.
+     *
+     * @param b The byte, read as an ISO-8859-1 character.
+     * @return Its digit, or -1 if it is not in the alphabet.
+     */
+    private int digitOf(byte b) {
+        return codec.digitOf(b & 0xFF);
+    }
+
+    /**
+     * Chooses the ranges of first digits of the shards, so that each gets
+     * about as many of the words in a sample as the others.
+     *
+     * @param sample The sample.
+     * @return For each digit, the shard of words starting with it.
+     */
+    private int[] shardOf(MappedByteBuffer sample) {
+        long[] counts = new long[codec.getUpperBound()];
+        long total = 0;
+        for (int i = 0, prev = -1; i < sample.limit(); i++) {
+            int d = digitOf(sample.get(i));
+            if (d >= 0 && prev < 0) {
+                counts[d]++;
+                total++;
+            }
+            prev = d;
+        }
+        int[] shardOf = new int[counts.length];
+        long seen = 0;
+        for (int d = 0; d < counts.length; d++) {
+            shardOf[d] = (int) Math.min(threads - 1,
+                    total == 0 ? d * threads / counts.length
+                            : (seen + counts[d] / 2) * threads / total);
+            seen += counts[d];
+        }
+        return shardOf;
+    }
+
+    /**
+     * Builds the trie of the words in a file.
+     *
+     * @param corpus The file.
+     * @return A trie of the distinct words in the file.
+     * @throws IOException If the file can not be read.
+     */
+    public Trie<String> build(Path corpus) throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(corpus,
+                StandardOpenOption.READ)) {
+            long length = channel.size();
+            int numChunks = (int) ((length + CHUNK - 1) / CHUNK);
+            int[] shardOf = shardOf(channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, Math.min(length, CHUNK)));
+
+            ArrayList<Trie<String>> shards = new ArrayList<>();
+            ArrayList<LinkedBlockingQueue<String[]>> queues
+                    = new ArrayList<>();
+            for (int s = 0; s < threads; s++) {
+                shards.add(new Trie<>(codec, compressed));
+                queues.add(new LinkedBlockingQueue<>());
+            }
+            AtomicInteger nextChunk = new AtomicInteger(),
+                    producing = new AtomicInteger(threads);
+            AtomicLong count = new AtomicLong();
+
+            Thread[] workers = new Thread[threads];
+            IOException[] failure = new IOException[1];
+            for (int t = 0; t < threads; t++) {
+                int own = t;
+                workers[t] = new Thread(() -> {
+                    try {
+                        LinkedBlockingQueue<String[]> queue = queues.get(own);
+                        Trie<String> trie = shards.get(own);
+                        for (int c; (c = nextChunk.getAndIncrement())
+                                < numChunks;) {
+                            count.addAndGet(tokenize(channel, length, c,
+                                    shardOf, queues));
+                            drain(queue, trie);
+                        }
+                        producing.decrementAndGet();
+                        while (true) {
+                            boolean done = producing.get() == 0;
+                            drain(queue, trie);
+                            if (done && queue.isEmpty()) break;
+                            String[] batch = queue.poll(1,
+                                    TimeUnit.MILLISECONDS);
+                            if (batch != null) insert(batch, trie);
+                        }
+                    } catch (IOException e) {
+                        synchronized (failure) {
+                            failure[0] = e;
+                        }
+                        producing.decrementAndGet();
+                    } catch (InterruptedException e) {
+                        synchronized (failure) {
+                            failure[0] = new IOException("Interrupted while "
+                                    + "building.", e);
+                        }
+                    }
+                });
+                workers[t].start();
+            }
+            for (Thread w : workers) w.join();
+            if (failure[0] != null) throw failure[0];
+
+            Trie<String> merged = new Trie<>(codec, compressed);
+            int bound = codec.getUpperBound();
+            for (Trie<String> shard : shards)
+                for (int d = shard.root().nextDigit(0); d >= 0;
+                        d = shard.root().nextDigit(d + 1))
+                    merged.root().setNext(d, shard.root().child(d), bound);
+
+            words = count.get();
+            nanos = System.nanoTime() - start;
+            return merged;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while building.", e);
+        }
+    }
+
+    /**
+     * Inserts every batch waiting in a queue.
+     *
+     * @param queue The queue.
+     * @param trie The trie the batches go in.
+     */
+    private static void drain(LinkedBlockingQueue<String[]> queue,
+            Trie<String> trie) {
+        for (String[] batch; (batch = queue.poll()) != null;)
+            insert(batch, trie);
+    }
+
+    /**
+     * Inserts a batch.
+     *
+     * @param batch The words, followed by nulls if the batch is not full.
+     * @param trie The trie the words go in.
+     */
+    private static void insert(String[] batch, Trie<String> trie) {
+        for (String word : batch) {
+            if (word == null) break;
+            trie.insert(word);
+        }
+    }
+
+    /**
+     * Tokenizes a chunk, handing its words to the queues of their shards.
+     *
+     * @param channel The file.
+     * @param length The length of the file.
+     * @param c The index of the chunk.
+     * @param shardOf The shard of each first digit.
+     * @param queues The queues of the shards.
+     * @return The number of words in the chunk.
+     * @throws IOException If the file can not be read.
+     */
+    private long tokenize(FileChannel channel, long length, int c,
+            int[] shardOf, ArrayList<LinkedBlockingQueue<String[]>> queues)
+            throws IOException {
+        long from = Math.max(0, (long) c * CHUNK - 1);
+        long to = Math.min(length, (long) (c + 1) * CHUNK + MAX_WORD);
+        MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY,
+                from, to - from);
+        int end = (int) (Math.min(length, (long) (c + 1) * CHUNK) - from);
+
+        String[][] batches = new String[threads][BATCH];
+        int[] filled = new int[threads];
+        long count = 0;
+        byte[] word = new byte[MAX_WORD];
+
+        int i = 0;
+        if (c > 0) while (i < end && digitOf(chunk.get(i)) >= 0) i++;
+        while (i < end) {
+            int d = digitOf(chunk.get(i));
+            if (d < 0) {
+                i++;
+                continue;
+            }
+            int wordLength = 0;
+            while (i < chunk.limit() && wordLength < MAX_WORD
+                    && digitOf(chunk.get(i)) >= 0)
+                word[wordLength++] = chunk.get(i++);
+            while (i < chunk.limit() && digitOf(chunk.get(i)) >= 0) i++;
+
+            int s = shardOf[d];
+            batches[s][filled[s]++] = new String(word, 0, wordLength,
+                    StandardCharsets.ISO_8859_1);
+            count++;
+            if (filled[s] == BATCH) {
+                queues.get(s).add(batches[s]);
+                batches[s] = new String[BATCH];
+                filled[s] = 0;
+            }
+        }
+        for (int s = 0; s < threads; s++)
+            if (filled[s] > 0) queues.get(s).add(batches[s]);
+        return count;
+    }
+
+    /**
+     * The number of words read by the last build, repeats included.
+     *
+     * @return The number of words read.
+     */
+    public long words() {
+        return words;
+    }
+
+    /**
+     * The throughput of the last build.
+     *
+     * @return The number of words read per second.
+     */
+    public double wordsPerSecond() {
+        return words * 1e9 / nanos;
+    }
+
+    /**
+     * Builds a word trie from a file with 1, 2 and 4 threads and reports the
+     * throughput of each.
+     *
+     * @param args Optionally the name of a text file. Otherwise a file of
+     * made up words is written to a temporary file.
+     * @throws IOException If the file can not be read or written.
+     */
+    public static void main(String[] args) throws IOException {
+        Path corpus;
+        if (args.length > 0) corpus = Path.of(args[0]);
+        else {
+            corpus = Files.createTempFile("corpus", ".txt");
+            corpus.toFile().deleteOnExit();
+            String[] words = Benchmark.words(args, 1_000_000);
+            try (Writer out = Files.newBufferedWriter(corpus)) {
+                for (int i = 0; i < 10_000_000; i++)
+                    out.write(words[(int) (i * 7919L % words.length)]
+                            + (i % 12 == 11 ? ".\n" : " "));
+            }
+        }
+
+        for (int threads : new int[]{1, 2, 4}) {
+            TrieBuilder builder = new TrieBuilder(SymbolCodec.letters(),
+                    threads, true);
+            Trie<String> trie = builder.build(corpus);
+            System.out.printf("%d threads: %,d words, %,d distinct, "
+                    + "%,.0f words/s%n", threads, builder.words(),
+                    trie.all().count(), builder.wordsPerSecond());
+        }
+    }
+}
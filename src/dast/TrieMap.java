@@ -0,0 +1,224 @@
+package dast;
+
+import java.util.ArrayList;
+import java.util.stream.Stream;
+
+/**
+ * A map whose keys are kept in a trie. Each value is kept in the node its key
+ * ends at, and every node counts the keys at or below it, so the number of
+ * keys with a prefix is found by walking down the prefix alone.
+ *
+ * @author Dov Neimand
+ * @param <K> The type of the keys.
+ * @param <V> The type of the values.
+ */
+public class TrieMap<K, V> {
+
+    private final Trie<K> trie;
+
+    /**
+     * The constructor.
+     *
+     * @param map A one to one function that maps the keys to a sequence of
+     * integers from 0 to its upper bound.
+     * @param compressed Should chains of single child nodes be collapsed into
+     * one node.
+     */
+    public TrieMap(toBoundedIntArray<K> map, boolean compressed) {
+        trie = new Trie<>(map, compressed, new MapNode<V>());
+    }
+
+    /**
+     * The constructor.
+     *
+     * @param map A one to one function that maps the keys to a sequence of
+     * integers from 0 to its upper bound.
+     */
+    public TrieMap(toBoundedIntArray<K> map) {
+        this(map, false);
+    }
+
+    /**
+     * A map whose keys are single words, no spaces, of upper and lower case
+     * letters.
+     *
+     * @param <V> The type of the values.
+     * @return A map from words to values.
+     */
+    public static <V> TrieMap<String, V> wordMap() {
+        return new TrieMap<>(SymbolCodec.letters(), true);
+    }
+
+    /**
+     * Maps a key to a value.
+     *
+     * @param key The key.
+     * @param value The value.
+     * @return The value the key used to map to, or null if it had none.
+     */
+    public V put(K key, V value) {
+        MapNode<V> n = MapNode.of(trie.find(key));
+        if (n != null && n.isTerminal()) {
+            V old = n.value;
+            n.value = value;
+            return old;
+        }
+        trie.insert(key);
+        ArrayList<TrieNode> path = trie.trace(key);
+        for (TrieNode node : path) MapNode.of(node).count++;
+        MapNode.<V>of(path.get(path.size() - 1)).value = value;
+        return null;
+    }
+
+    /**
+     * The value a key maps to.
+     *
+     * @param key The key.
+     * @return The value key maps to, or null if it maps to none.
+     */
+    public V get(K key) {
+        MapNode<V> n = MapNode.of(trie.find(key));
+        return n != null && n.isTerminal() ? n.value : null;
+    }
+
+    /**
+     * Does the proffered key map to a value.
+     *
+     * @param key The key.
+     * @return True if it does, false otherwise.
+     */
+    public boolean containsKey(K key) {
+        return trie.contains(key);
+    }
+
+    /**
+     * Removes a key and its value.
+     *
+     * @param key The key.
+     * @return The value key mapped to, or null if it mapped to none.
+     */
+    public V remove(K key) {
+        MapNode<V> n = MapNode.of(trie.find(key));
+        if (n == null || !n.isTerminal()) return null;
+        V old = n.value;
+        n.value = null;
+        for (TrieNode node : trie.trace(key)) MapNode.of(node).count--;
+        trie.delete(key);
+        return old;
+    }
+
+    /**
+     * The number of keys.
+     *
+     * @return The number of keys in the map.
+     */
+    public int size() {
+        return MapNode.of(trie.root()).count;
+    }
+
+    /**
+     * The number of keys that start with a prefix, the prefix itself
+     * included. Takes time proportional to the length of the prefix.
+     *
+     * @param prefix The prefix.
+     * @return The number of keys starting with prefix.
+     */
+    public int countWithPrefix(K prefix) {
+        int[] path = trie.pathTo(prefix);
+        return path == null ? 0 : MapNode.of(trie.nodeAt(path)).count;
+    }
+
+    /**
+     * The keys that start with a prefix, in order.
+     *
+     * @param prefix The prefix.
+     * @return The keys starting with prefix.
+     */
+    public Stream<K> keys(K prefix) {
+        return trie.all(prefix);
+    }
+
+    /**
+     * All the keys, in order.
+     *
+     * @return All the keys.
+     */
+    public Stream<K> keys() {
+        return trie.all();
+    }
+
+    /**
+     * Tests the map.
+     *
+     * @param args Not used.
+     */
+    public static void main(String[] args) {
+        TrieMap<String, Integer> map = wordMap();
+        map.put("ham", 1);
+        map.put("hamster", 2);
+        map.put("hat", 3);
+        map.put("bob", 4);
+        map.remove("hat");
+
+        System.out.println(map.countWithPrefix("ha") + " " + map.get("hamster")
+                + " " + map.size());
+    }
+}
+
+/**
+ * A node that carries the value of the key ending at it and the number of
+ * keys at or below it.
+ *
+ * @param <V> The type of the values.
+ */
+class MapNode<V> extends TrieNode {
+
+    /**
+     * The value of the key ending at this node, if it is terminal.
+     */
+    V value;
+
+    /**
+     * The number of keys at or below this node.
+     */
+    int count;
+
+    /**
+     * A node of a TrieMap as the node it is. Every node of a TrieMap is a
+     * MapNode, made by the root's newNode.
+     *
+     * @param <V> The type of the values.
+     * @param n A node of a TrieMap.
+     * @return The same node.
+     */
+    @SuppressWarnings("unchecked")
+    static <V> MapNode<V> of(TrieNode n) {
+        return (MapNode<V>) n;
+    }
+
+    @Override
+    TrieNode newNode() {
+        return new MapNode<V>();
+    }
+
+    @Override
+    void adopt(TrieNode other) {
+        super.adopt(other);
+        MapNode<V> from = of(other);
+        value = from.value;
+        count = from.count;
+    }
+
+    /**
+     * Splits the run of this node, which is then left with only the new
+     * child below it.
+     *
+     * @param at The length of the run this node keeps.
+     * @param bound The number of digits in the alphabet.
+     */
+    @Override
+    public void split(int at, int bound) {
+        super.split(at, bound);
+        count = of(child(nextDigit(0))).count;
+    }
+}
@@ -0,0 +1,538 @@
+package dast;
+
+import java.util.Arrays;
+
+/**
+ * A node. Rather than every node holding an array as wide as the alphabet,
+ * the children are kept in one of a few adaptive kinds, as in an adaptive
+ * radix tree. A node with no children holds no arrays at all. A node with
+ * few children keeps their digits in a small sorted array of 4 or 16 slots.
+ * A node with more children keeps a byte index, one entry per digit, into 48
+ * child slots. Only a node with more children than that, or one whose
+ * alphabet is too small for the sparse kinds to save anything, holds an
+ * array as wide as the alphabet. Nodes grow into the next kind when they
+ * fill and shrink back when deletes leave them mostly empty.
+ *
+ * Every node counts its children, and the 48 kind and the full width kind
+ * keep a bitmap of which digits have children, so checking for children and
+ * finding the first or next child take a few word operations rather than a
+ * scan of the whole alphabet.
+ *
+ * In a path compressed trie a node may also carry a run, the digits that
+ * follow the digit leading into it. The node then stands for the whole chain
+ * of single child nodes those digits would otherwise need.
+ */
+class TrieNode {
+
+    /**
+     * The capacities of the sparse kinds, smallest first. A kind is only used
+     * when it is at most half the width of the alphabet.
+     */
+    private static final int[] CAPACITIES = {4, 16, 48};
+
+    /**
+     * The capacity of the kind that keeps a byte index into its children.
+     * Smaller kinds keep their digits sorted in keys.
+     */
+    private static final int INDEXED = 48;
+
+    /**
+     * The digits of the children, sorted, for the 4 and 16 kinds. Null
+     * otherwise.
+     */
+    private int[] keys;
+
+    /**
+     * For the 48 kind, one more than the slot in next of each digit's child,
+     * or 0 if there is no such child. Null otherwise.
+     */
+    private byte[] index;
+
+    /**
+     * The children. Null if this node has none.
+     */
+    private TrieNode[] next;
+
+    /**
+     * For the 48 kind and the full width kind, a bit for each digit that has
+     * a child. The 48 kind has one more word at the end, a bit for each of
+     * its slots in next that is in use. Null for the other kinds.
+     */
+    private long[] occupied;
+
+    /**
+     * The digits on the edge into this node after the first, or null if
+     * there are none.
+     */
+    private int[] run;
+
+    private int size;
+    private boolean terminal;
+
+    /**
+     * The constructor. The node starts out with no children and so holds no
+     * arrays.
+     */
+    public TrieNode() {
+        this.terminal = false;
+    }
+
+    /**
+     * A new empty node of the same kind as this one.
+     *
+     * @return A new node.
+     */
+    TrieNode newNode() {
+        return new TrieNode();
+    }
+
+    /**
+     * Is this node the final digit of a value being stored.
+     *
+     * @return True if it is, false otherwise.
+     */
+    public boolean isTerminal() {
+        return terminal;
+    }
+
+    public void setTerminal(boolean terminal) {
+        this.terminal = terminal;
+    }
+
+    /**
+     * The number of digits on the edge into this node after the first.
+     *
+     * @return The length of this node's run.
+     */
+    public int runLength() {
+        return run == null ? 0 : run.length;
+    }
+
+    /**
+     * A digit in this node's run.
+     *
+     * @param j The index of the digit in the run.
+     * @return The j'th digit on the edge into this node after the first.
+     */
+    public int run(int j) {
+        return run[j];
+    }
+
+    /**
+     * Sets the digits on the edge into this node after the first.
+     *
+     * @param run The run, or null for none.
+     */
+    public void setRun(int[] run) {
+        this.run = run == null || run.length == 0 ? null : run;
+    }
+
+    /**
+     * How many digits of this node's run match the proffered digits.
+     *
+     * @param <K> The form the key is given in.
+     * @param key The key whose digits are being compared to the run.
+     * @param codec Gives the digits of key. A digit it has none for matches
+     * nothing.
+     * @param from The index in key's digits that lines up with the start of
+     * the run.
+     * @param length The number of digits in key.
+     * @return The length of the longest common prefix of the run and the
+     * digits from the proffered index on.
+     */
+    public <K> int match(K key, DigitCodec<K> codec, int from, int length) {
+        int j = 0;
+        while (j < runLength() && from + j < length
+                && codec.probe(key, from + j) == run[j])
+            j++;
+        return j;
+    }
+
+    /**
+     * Splits the run of this node. This node keeps the first part of the run
+     * and gets a single new child holding everything it used to hold after
+     * that.
+     *
+     * @param at The length of the run this node keeps.
+     * @param bound The number of digits in the alphabet.
+     */
+    public void split(int at, int bound) {
+        TrieNode tail = newNode();
+        tail.adopt(this);
+        tail.setRun(Arrays.copyOfRange(run, at + 1, run.length));
+
+        int digit = run[at];
+        setRun(Arrays.copyOf(run, at));
+        adopt(newNode());
+        resize(grownCapacity(bound), bound);
+        put(digit, tail);
+    }
+
+    /**
+     * Takes the children and terminal flag of another node, leaving its run
+     * alone. Kinds of node that carry more should take that too.
+     *
+     * @param other The node whose children this node takes.
+     */
+    void adopt(TrieNode other) {
+        keys = other.keys;
+        index = other.index;
+        next = other.next;
+        occupied = other.occupied;
+        size = other.size;
+        terminal = other.terminal;
+    }
+
+    /**
+     * If this node is not terminal and has a single child, the child is
+     * folded into this node, its digit and run appended to this node's run.
+     * This undoes a split once a delete leaves the chain unbranched.
+     */
+    public void mergeChild() {
+        if (terminal || size != 1) return;
+        int digit = nextDigit(0);
+        TrieNode child = child(digit);
+
+        int[] merged = new int[runLength() + 1 + child.runLength()];
+        for (int j = 0; j < runLength(); j++) merged[j] = run[j];
+        merged[runLength()] = digit;
+        for (int j = 0; j < child.runLength(); j++)
+            merged[runLength() + 1 + j] = child.run[j];
+
+        run = merged;
+        adopt(child);
+    }
+
+    /**
+     * The number of children this node has.
+     *
+     * @return The number of children this node has.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The slot in keys that holds the proffered digit.
+     *
+     * @param i The digit.
+     * @return The slot holding i, or -1 if there is no such slot.
+     */
+    private int slot(int i) {
+        for (int j = 0; j < size && keys[j] <= i; j++)
+            if (keys[j] == i) return j;
+        return -1;
+    }
+
+    /**
+     * The child with the proffered index.
+     *
+     * @param i The index of the child.
+     * @return The child, or null if there is no such child.
+     */
+    public TrieNode child(int i) {
+        if (next == null) return null;
+        if (keys != null) {
+            int slot = slot(i);
+            return slot < 0 ? null : next[slot];
+        }
+        if (index != null) {
+            int slot = index[i];
+            return slot == 0 ? null : next[slot - 1];
+        }
+        return next[i];
+    }
+
+    /**
+     * The next node with the following index. If there is no such node, one
+     * is created.
+     *
+     * @param i The index of the next node.
+     * @param bound The number of digits in the alphabet.
+     * @return The next node with value and index i.
+     */
+    public TrieNode next(int i, int bound) {
+        TrieNode child = child(i);
+        if (child != null) return child;
+        else return setNext(i, bound);
+    }
+
+    /**
+     * Is the proffered index a child of this node?
+     *
+     * @param i The desired child.
+     * @return True if the proffered index is a child of this node, false
+     * otherwise.
+     */
+    public boolean hasNext(int i) {
+        return child(i) != null;
+    }
+
+    /**
+     * Does this node have any children.
+     *
+     * @return True if this node has any children, false otherwise.
+     */
+    public boolean hasNext() {
+        return size > 0;
+    }
+
+    /**
+     * The current capacity of this node.
+     *
+     * @return The number of children this node can hold before it needs to
+     * grow.
+     */
+    int capacity() {
+        return next == null ? 0 : next.length;
+    }
+
+    /**
+     * The capacity of the kind this node should grow into when it is full.
+     *
+     * @param bound The number of digits in the alphabet.
+     * @return The capacity of the next larger kind.
+     */
+    private int grownCapacity(int bound) {
+        for (int c : CAPACITIES)
+            if (c > capacity() && c * 2 <= bound) return c;
+        return bound;
+    }
+
+    /**
+     * The capacity of the kind this node should shrink into once enough of
+     * its children have been deleted.
+     *
+     * @param bound The number of digits in the alphabet.
+     * @return The capacity of the next smaller kind, or 0 if there is none.
+     */
+    private int shrunkCapacity(int bound) {
+        int shrunk = 0;
+        for (int c : CAPACITIES)
+            if (c < capacity() && c * 2 <= bound) shrunk = c;
+        return shrunk;
+    }
+
+    /**
+     * The number of digits in the alphabet, as far as this node can tell.
+     * The 48 kind and the full width kind know it, the small kinds never need
+     * it to shrink.
+     *
+     * @return The width of the alphabet, or Integer.MAX_VALUE if this node is
+     * one of the small kinds.
+     */
+    private int knownBound() {
+        if (index != null) return index.length;
+        if (keys == null && next != null) return next.length;
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * The smallest digit, at least from, that has a child.
+     *
+     * @param from The smallest digit to be considered.
+     * @return The smallest digit no less than from with a child, or -1 if
+     * there is none.
+     */
+    public int nextDigit(int from) {
+        if (next == null) return -1;
+        if (keys != null) {
+            for (int j = 0; j < size; j++)
+                if (keys[j] >= from) return keys[j];
+            return -1;
+        }
+        from = Math.max(from, 0);
+        int w = from >>> 6,
+                words = index != null ? occupied.length - 1 : occupied.length;
+        if (w >= words) return -1;
+        long bits = occupied[w] & (-1L << from);
+        while (bits == 0)
+            if (++w == words) return -1;
+            else bits = occupied[w];
+        return (w << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    /**
+     * An estimate of the bytes this node and its arrays take, on a 64 bit
+     * JVM with compressed references. See TrieStats.
+     *
+     * @return The estimated size of this node, in bytes.
+     */
+    long bytes() {
+        long bytes = align(12 + 5 * 4 + 4 + 1);
+        if (keys != null) bytes += align(16 + 4L * keys.length);
+        if (index != null) bytes += align(16 + index.length);
+        if (next != null) bytes += align(16 + 4L * next.length);
+        if (occupied != null) bytes += align(16 + 8L * occupied.length);
+        if (run != null) bytes += align(16 + 4L * run.length);
+        return bytes;
+    }
+
+    /**
+     * Rounds a size up to a multiple of 8, as the JVM lays objects out.
+     *
+     * @param bytes The size.
+     * @return The size rounded up to a multiple of 8.
+     */
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    /**
+     * Makes room for a number of children up front, in the kind that would
+     * hold them had they been added one at a time. The node must have no
+     * children yet.
+     *
+     * @param count The number of children to come.
+     * @param bound The number of digits in the alphabet.
+     */
+    void reserve(int count, int bound) {
+        if (count == 0) return;
+        int capacity = bound;
+        for (int c : CAPACITIES)
+            if (c >= count && c * 2 <= bound) {
+                capacity = c;
+                break;
+            }
+        resize(capacity, bound);
+    }
+
+    /**
+     * The number of words a bitmap with a bit for each digit needs.
+     *
+     * @param bound The number of digits in the alphabet.
+     * @return The number of longs needed to hold bound bits.
+     */
+    private static int words(int bound) {
+        return (bound + 63) >>> 6;
+    }
+
+    /**
+     * Moves the children of this node into a kind with the proffered
+     * capacity.
+     *
+     * @param capacity The capacity of the new kind, 0 to drop all the arrays.
+     * @param bound The number of digits in the alphabet.
+     */
+    private void resize(int capacity, int bound) {
+        int[] oldKeys = keys;
+        byte[] oldIndex = index;
+        TrieNode[] oldNext = next;
+        int oldSize = size;
+
+        keys = null;
+        index = null;
+        next = null;
+        occupied = null;
+        size = 0;
+        if (capacity == 0) return;
+
+        if (capacity == bound) {
+            next = new TrieNode[bound];
+            occupied = new long[words(bound)];
+        } else {
+            next = new TrieNode[capacity];
+            if (capacity < INDEXED) keys = new int[capacity];
+            else {
+                index = new byte[bound];
+                occupied = new long[words(bound) + 1];
+            }
+        }
+
+        if (oldNext == null) return;
+        if (oldKeys != null)
+            for (int j = 0; j < oldSize; j++) put(oldKeys[j], oldNext[j]);
+        else if (oldIndex != null) {
+            for (int i = 0; i < oldIndex.length; i++)
+                if (oldIndex[i] != 0) put(i, oldNext[oldIndex[i] - 1]);
+        } else for (int i = 0; i < oldNext.length; i++)
+            if (oldNext[i] != null) put(i, oldNext[i]);
+    }
+
+    /**
+     * Places a child in this node, which must have room for it and must not
+     * already have a child at that index.
+     *
+     * @param i The index of the child.
+     * @param child The child.
+     */
+    private void put(int i, TrieNode child) {
+        if (keys != null) {
+            int j = size;
+            for (; j > 0 && keys[j - 1] > i; j--) {
+                keys[j] = keys[j - 1];
+                next[j] = next[j - 1];
+            }
+            keys[j] = i;
+            next[j] = child;
+        } else if (index != null) {
+            int last = occupied.length - 1,
+                    slot = Long.numberOfTrailingZeros(~occupied[last]);
+            occupied[last] |= 1L << slot;
+            occupied[i >>> 6] |= 1L << i;
+            next[slot] = child;
+            index[i] = (byte) (slot + 1);
+        } else {
+            occupied[i >>> 6] |= 1L << i;
+            next[i] = child;
+        }
+        size++;
+    }
+
+    /**
+     * expands the tree at the i'th index.
+     *
+     * @param i The index the tree should be expanded at.
+     * @param bound The number of digits in the alphabet.
+     * @return The new child.
+     */
+    public TrieNode setNext(int i, int bound) {
+        TrieNode child = newNode();
+        setNext(i, child, bound);
+        return child;
+    }
+
+    /**
+     * Puts an existing node, with everything below it, at the i'th index.
+     *
+     * @param i The index, which must not have a child yet.
+     * @param child The node.
+     * @param bound The number of digits in the alphabet.
+     */
+    void setNext(int i, TrieNode child, int bound) {
+        if (size == capacity()) resize(grownCapacity(bound), bound);
+        put(i, child);
+    }
+
+    /**
+     * Deletes the next node. If this leaves the node mostly empty it shrinks
+     * into a smaller kind.
+     *
+     * @param nodeIndex The index of the node to be deleted.
+     */
+    public void deleteNext(int nodeIndex) {
+        if (!hasNext(nodeIndex)) return;
+        if (keys != null) {
+            int j = slot(nodeIndex);
+            size--;
+            System.arraycopy(keys, j + 1, keys, j, size - j);
+            System.arraycopy(next, j + 1, next, j, size - j);
+            next[size] = null;
+        } else if (index != null) {
+            int slot = index[nodeIndex] - 1;
+            occupied[occupied.length - 1] &= ~(1L << slot);
+            occupied[nodeIndex >>> 6] &= ~(1L << nodeIndex);
+            next[slot] = null;
+            index[nodeIndex] = 0;
+            size--;
+        } else {
+            occupied[nodeIndex >>> 6] &= ~(1L << nodeIndex);
+            next[nodeIndex] = null;
+            size--;
+        }
+
+        int bound = knownBound(), shrunk = shrunkCapacity(bound);
+        if (size == 0) resize(0, bound);
+        else if (size <= shrunk - shrunk / 4) resize(shrunk, bound);
+    }
+}
@@ -0,0 +1,290 @@
+package dast;
+
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Walks the terminal nodes below a node of a trie in order, lazily. Rather
+ * than recursing, the walk keeps an explicit stack of the nodes on the
+ * current path, and the digits of the current path are kept in one buffer
+ * that is reused for every element. Each element is only found when it is
+ * asked for, so a consumer that stops early only pays for what it took.
+ *
+ * For parallel streams, the walk splits by handing the subtrees of the
+ * shallowest node on the path that still has untouched children to another
+ * spliterator. If every node on the path has at most one untouched child, the
+ * walk first descends into that child, so a skewed trie still splits where it
+ * branches.
+ *
+ * @author Dov Neimand
+ */
+class TrieSpliterator implements Spliterator<int[]> {
+
+    /**
+     * The nodes on the current path, the first being the node the walk
+     * started at.
+     */
+    private TrieNode[] nodes;
+
+    /**
+     * For each node on the path, the smallest digit of its children that has
+     * not yet been walked.
+     */
+    private int[] from;
+
+    /**
+     * For each node on the path, one more than the largest digit of its
+     * children that belongs to this walk.
+     */
+    private int[] to;
+
+    /**
+     * For each node on the path, the number of digits in the buffer that
+     * lead to it.
+     */
+    private int[] lengths;
+
+    /**
+     * The digits of the current path.
+     */
+    private int[] buffer;
+
+    /**
+     * The number of nodes on the path.
+     */
+    private int depth;
+
+    /**
+     * The number of digits of the node at the top of the path if it still
+     * has to be offered as an element, -1 otherwise.
+     */
+    private int pending;
+
+    /**
+     * An estimate of the number of elements left, halved on each split.
+     */
+    private long estimate;
+
+    /**
+     * The constructor.
+     *
+     * @param start The node whose terminal descendants, and itself if it is
+     * terminal, are walked.
+     * @param prefix The digits leading to start.
+     */
+    public TrieSpliterator(TrieNode start, int[] prefix) {
+        nodes = new TrieNode[8];
+        from = new int[8];
+        to = new int[8];
+        lengths = new int[8];
+        buffer = Arrays.copyOf(prefix, Math.max(16, prefix.length * 2));
+        push(start, prefix.length);
+        pending = start.isTerminal() ? prefix.length : -1;
+        estimate = Long.MAX_VALUE;
+    }
+
+    /**
+     * A walk of a whole trie that starts at a key rather than at the first
+     * element. The path to where the key is, or would be, is put on the
+     * stack directly, each node on it set to go on with the children after
+     * the one the key goes through, so nothing before the key is visited.
+     *
+     * @param root The root of the trie.
+     * @param key The digits of the key.
+     * @param inclusive Should the key itself be walked if it is an element.
+     * @return A walk of the elements after key, or at or after it.
+     */
+    static TrieSpliterator seek(TrieNode root, int[] key, boolean inclusive) {
+        TrieSpliterator walk = new TrieSpliterator(root, new int[0]);
+        walk.pending = -1;
+        TrieNode n = root;
+        for (int i = 0;;) {
+            if (i == key.length) {
+                if (inclusive && n.isTerminal()) walk.pending = i;
+                return walk;
+            }
+            int digit = key[i];
+            walk.from[walk.depth - 1] = digit + 1;
+            TrieNode child = n.child(digit);
+            if (child == null) return walk;
+
+            int length = walk.append(i, digit), j = 0;
+            while (j < child.runLength() && i + 1 + j < key.length
+                    && child.run(j) == key[i + 1 + j])
+                j++;
+            for (int r = 0; r < child.runLength(); r++)
+                length = walk.append(length, child.run(r));
+
+            if (j == child.runLength()) {
+                walk.push(child, length);
+                i = length;
+                n = child;
+            } else {
+                if (i + 1 + j == key.length || child.run(j) > key[i + 1 + j]) {
+                    walk.push(child, length);
+                    walk.pending = child.isTerminal() ? length : -1;
+                }
+                return walk;
+            }
+        }
+    }
+
+    /**
+     * A copy of another spliterator.
+     *
+     * @param other The spliterator to be copied.
+     */
+    private TrieSpliterator(TrieSpliterator other) {
+        nodes = other.nodes.clone();
+        from = other.from.clone();
+        to = other.to.clone();
+        lengths = other.lengths.clone();
+        buffer = other.buffer.clone();
+        depth = other.depth;
+        pending = other.pending;
+        estimate = other.estimate;
+    }
+
+    /**
+     * Puts a node on top of the path.
+     *
+     * @param n The node.
+     * @param length The number of digits leading to the node.
+     */
+    private void push(TrieNode n, int length) {
+        if (depth == nodes.length) {
+            nodes = Arrays.copyOf(nodes, depth * 2);
+            from = Arrays.copyOf(from, depth * 2);
+            to = Arrays.copyOf(to, depth * 2);
+            lengths = Arrays.copyOf(lengths, depth * 2);
+        }
+        nodes[depth] = n;
+        from[depth] = 0;
+        to[depth] = Integer.MAX_VALUE;
+        lengths[depth] = length;
+        depth++;
+    }
+
+    /**
+     * Appends a digit to the buffer.
+     *
+     * @param length The number of digits in the buffer that are in use.
+     * @param digit The digit to be written after them.
+     * @return The number of digits in use after the digit is written.
+     */
+    private int append(int length, int digit) {
+        if (length == buffer.length)
+            buffer = Arrays.copyOf(buffer, length * 2);
+        buffer[length] = digit;
+        return length + 1;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super int[]> action) {
+        if (pending >= 0) {
+            action.accept(Arrays.copyOf(buffer, pending));
+            pending = -1;
+            return true;
+        }
+        while (depth > 0) {
+            TrieNode n = nodes[depth - 1];
+            int digit = n.nextDigit(from[depth - 1]);
+            if (digit < 0 || digit >= to[depth - 1]) {
+                nodes[--depth] = null;
+                continue;
+            }
+            from[depth - 1] = digit + 1;
+
+            TrieNode child = n.child(digit);
+            int length = append(lengths[depth - 1], digit);
+            for (int j = 0; j < child.runLength(); j++)
+                length = append(length, child.run(j));
+            push(child, length);
+
+            if (child.isTerminal()) {
+                action.accept(Arrays.copyOf(buffer, length));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Descends into a child of the node at the top of the path without
+     * offering it as an element. If it is terminal it is left pending.
+     *
+     * @param digit The digit of the child.
+     */
+    private void descend(int digit) {
+        TrieNode child = nodes[depth - 1].child(digit);
+        from[depth - 1] = digit + 1;
+        int length = append(lengths[depth - 1], digit);
+        for (int j = 0; j < child.runLength(); j++)
+            length = append(length, child.run(j));
+        push(child, length);
+        pending = child.isTerminal() ? length : -1;
+    }
+
+    /**
+     * Splits off everything that comes before the proffered child of the
+     * proffered node on the path. The split off spliterator keeps the rest
+     * of the path and anything pending, and this one keeps the children of
+     * the node from the proffered digit on, along with whatever is left of
+     * the nodes below it on the path.
+     *
+     * @param f The index on the path of the node being split.
+     * @param mid The digit of the first child this spliterator keeps.
+     * @return A spliterator over everything that comes before.
+     */
+    private TrieSpliterator split(int f, int mid) {
+        TrieSpliterator before = new TrieSpliterator(this);
+        for (int g = 0; g < f; g++) before.from[g] = before.to[g];
+        before.to[f] = mid;
+
+        for (int g = f + 1; g < depth; g++) nodes[g] = null;
+        depth = f + 1;
+        from[f] = mid;
+        pending = -1;
+
+        estimate >>>= 1;
+        before.estimate = estimate;
+        return before;
+    }
+
+    @Override
+    public Spliterator<int[]> trySplit() {
+        while (depth > 0) {
+            for (int f = 0; f < depth; f++) {
+                int count = 0;
+                for (int d = nodes[f].nextDigit(from[f]); d >= 0 && d < to[f];
+                        d = nodes[f].nextDigit(d + 1))
+                    count++;
+
+                boolean workAbove = pending >= 0 || f < depth - 1;
+                if (count >= 2 || count == 1 && workAbove) {
+                    int mid = nodes[f].nextDigit(from[f]);
+                    for (int i = 0; i < count / 2; i++)
+                        mid = nodes[f].nextDigit(mid + 1);
+                    return split(f, mid);
+                }
+                if (f == depth - 1 && count == 1) {
+                    descend(nodes[f].nextDigit(from[f]));
+                    break;
+                }
+                if (f == depth - 1) return null;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public long estimateSize() {
+        return estimate;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | DISTINCT | NONNULL;
+    }
+}
@@ -0,0 +1,185 @@
+package dast;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The shape of a trie and roughly how much memory it holds: how many nodes
+ * and elements it has, how many children the nodes have at each depth, how
+ * many of the slots for children go unused, which node kinds are in use and
+ * an estimate of the bytes the nodes take.
+ *
+ * The bytes are estimated for a 64 bit JVM with compressed references: 12
+ * bytes of header for an object, 16 for an array, 4 for a reference, and
+ * everything rounded up to a multiple of 8. Fields that subclasses of the
+ * nodes add, such as the scores of a WeightedTrie, are not counted.
+ *
+ * @author Dov Neimand
+ */
+public class TrieStats {
+
+    private long nodes, terminals, emptySlots, runDigits, bytes;
+
+    /**
+     * For each depth, the number of nodes with each number of children.
+     */
+    private final ArrayList<long[]> fanOut = new ArrayList<>();
+
+    /**
+     * The number of nodes of each capacity, 0 being nodes with no children.
+     */
+    private final TreeMap<Integer, Long> kinds = new TreeMap<>();
+
+    private final int bound;
+
+    /**
+     * The constructor. Walks every node below the root.
+     *
+     * @param root The root of the trie.
+     * @param bound The number of digits in the alphabet.
+     */
+    TrieStats(TrieNode root, int bound) {
+        this.bound = bound;
+        ArrayList<TrieNode> level = new ArrayList<>();
+        level.add(root);
+        for (int depth = 0; !level.isEmpty(); depth++) {
+            long[] histogram = new long[bound + 1];
+            fanOut.add(histogram);
+            ArrayList<TrieNode> below = new ArrayList<>();
+            for (TrieNode n : level) {
+                nodes++;
+                if (n.isTerminal()) terminals++;
+                runDigits += n.runLength();
+                bytes += n.bytes();
+                emptySlots += n.capacity() - n.size();
+                kinds.merge(n.capacity(), 1L, Long::sum);
+                histogram[n.size()]++;
+                for (int d = n.nextDigit(0); d >= 0; d = n.nextDigit(d + 1))
+                    below.add(n.child(d));
+            }
+            level = below;
+        }
+    }
+
+    /**
+     * The number of nodes, the root included.
+     *
+     * @return The number of nodes.
+     */
+    public long nodes() {
+        return nodes;
+    }
+
+    /**
+     * The number of nodes that end an element, which is the number of
+     * elements.
+     *
+     * @return The number of terminal nodes.
+     */
+    public long terminals() {
+        return terminals;
+    }
+
+    /**
+     * The number of slots for children, over all the nodes, that hold no
+     * child.
+     *
+     * @return The number of empty child slots.
+     */
+    public long emptySlots() {
+        return emptySlots;
+    }
+
+    /**
+     * The number of digits kept in the runs of path compressed nodes rather
+     * than in nodes of their own.
+     *
+     * @return The number of digits in runs.
+     */
+    public long runDigits() {
+        return runDigits;
+    }
+
+    /**
+     * An estimate of the bytes the nodes and their arrays take.
+     *
+     * @return The estimated bytes retained by the trie.
+     */
+    public long bytes() {
+        return bytes;
+    }
+
+    /**
+     * The number of levels of nodes, the root's level included.
+     *
+     * @return The depth of the deepest node plus one.
+     */
+    public int depth() {
+        return fanOut.size();
+    }
+
+    /**
+     * The number of nodes at a depth with a number of children.
+     *
+     * @param depth The depth, the root being at depth 0.
+     * @param children The number of children.
+     * @return The number of nodes at depth with that many children.
+     */
+    public long fanOut(int depth, int children) {
+        if (depth >= fanOut.size() || children > bound) return 0;
+        return fanOut.get(depth)[children];
+    }
+
+    /**
+     * The average number of children of the nodes at a depth.
+     *
+     * @param depth The depth, the root being at depth 0.
+     * @return The mean fan-out at depth, or 0 if there are no nodes there.
+     */
+    public double meanFanOut(int depth) {
+        if (depth >= fanOut.size()) return 0;
+        long count = 0, children = 0;
+        long[] histogram = fanOut.get(depth);
+        for (int c = 0; c < histogram.length; c++) {
+            count += histogram[c];
+            children += c * histogram[c];
+        }
+        return (double) children / count;
+    }
+
+    /**
+     * The number of nodes of each kind.
+     *
+     * @return From the capacity of a kind, 0 for nodes with no children, to
+     * the number of nodes of that kind.
+     */
+    public Map<Integer, Long> kinds() {
+        return kinds;
+    }
+
+    /**
+     * The totals, and for each depth its mean fan-out and the number of
+     * nodes with each number of children.
+     *
+     * @return A description of the trie.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%,d nodes, %,d terminal, %,d empty slots, "
+                + "%,d run digits, about %,d bytes%n", nodes, terminals,
+                emptySlots, runDigits, bytes));
+        sb.append("nodes by capacity ").append(kinds).append('\n');
+        for (int depth = 0; depth < fanOut.size(); depth++) {
+            sb.append(String.format("depth %d, mean fan-out %.2f:", depth,
+                    meanFanOut(depth)));
+            long[] histogram = fanOut.get(depth);
+            for (int c = 0; c < histogram.length; c++)
+                if (histogram[c] > 0)
+                    sb.append(' ').append(c).append('x').append(histogram[c]);
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
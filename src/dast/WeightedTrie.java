@@ -0,0 +1,281 @@
+package dast;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.stream.Collectors;
+import tools.Benchmark;
+
+/**
+ * A trie whose elements carry scores, for ranking completions. Every node
+ * also remembers the best score in its subtree, so the best completions of a
+ * prefix can be found best first, going down only into subtrees that can
+ * still beat what has been found, without looking at the rest.
+ *
+ * @author Dov Neimand
+ * @param <T> The type of element in the trie.
+ */
+public class WeightedTrie<T> extends Trie<T> {
+
+    /**
+     * The constructor.
+     *
+     * @param map A one to one function that maps whatever objects you want to
+     * store in the trie to a sequence of integers from 0 to its upper bound.
+     * @param compressed Should chains of single child nodes be collapsed into
+     * one node.
+     */
+    public WeightedTrie(toBoundedIntArray<T> map, boolean compressed) {
+        super(map, compressed, new WeightedNode());
+    }
+
+    /**
+     * The constructor.
+     *
+     * @param map A one to one function that maps whatever objects you want to
+     * store in the trie to a sequence of integers from 0 to its upper bound.
+     */
+    public WeightedTrie(toBoundedIntArray<T> map) {
+        this(map, false);
+    }
+
+    /**
+     * A weighted trie designed to contain single words, no spaces, of upper
+     * and lower case letter.
+     *
+     * @param compressed Should chains of single child nodes be collapsed into
+     * one node.
+     * @return A weighted trie designed to hold single words.
+     */
+    public static WeightedTrie<String> wordTrie(boolean compressed) {
+        return new WeightedTrie<>(SymbolCodec.letters(), compressed);
+    }
+
+    /**
+     * Inserts an element, or changes its score if it is already here.
+     *
+     * @param element The element.
+     * @param score The score of the element.
+     */
+    public void insert(T element, double score) {
+        if (Double.isNaN(score))
+            throw new IllegalArgumentException("The score is not a number.");
+        super.insert(element);
+        ArrayList<TrieNode> path = trace(element);
+        ((WeightedNode) path.get(path.size() - 1)).score = score;
+
+        for (int j = path.size() - 1; j >= 0; j--) {
+            WeightedNode n = (WeightedNode) path.get(j);
+            double old = n.best;
+            n.refresh();
+            if (n.best == old && j < path.size() - 1) break;
+        }
+    }
+
+    /**
+     * Inserts an element with a score of 0, or leaves the score alone if it
+     * is already here.
+     *
+     * @param element The element.
+     */
+    @Override
+    public void insert(T element) {
+        if (!contains(element)) insert(element, 0);
+    }
+
+    /**
+     * Inserts many elements with a score of 0, one at a time, so the best
+     * scores below each node stay up to date.
+     *
+     * @param sorted The elements.
+     */
+    @Override
+    public void insertAll(List<T> sorted) {
+        for (T e : sorted) insert(e);
+    }
+
+    /**
+     * Deletes an element from the trie and cleans up unused space.
+     *
+     * @param element The element to be deleted.
+     */
+    @Override
+    public void delete(T element) {
+        super.delete(element);
+        ArrayList<TrieNode> path = trace(element);
+        for (int j = path.size() - 1; j >= 0; j--)
+            ((WeightedNode) path.get(j)).refresh();
+    }
+
+    /**
+     * The score of an element.
+     *
+     * @param element The element.
+     * @return Its score, or NaN if it is not in the trie.
+     */
+    public double score(T element) {
+        if (!contains(element)) return Double.NaN;
+        ArrayList<TrieNode> path = trace(element);
+        return ((WeightedNode) path.get(path.size() - 1)).score;
+    }
+
+    /**
+     * A node or a finished element waiting in the best first search.
+     */
+    private static class Candidate implements Comparable<Candidate> {
+
+        final WeightedNode node;
+        final int[] digits;
+
+        /**
+         * Is this the element ending at node, rather than node's subtree.
+         */
+        final boolean element;
+
+        Candidate(WeightedNode node, int[] digits, boolean element) {
+            this.node = node;
+            this.digits = digits;
+            this.element = element;
+        }
+
+        /**
+         * The best score this candidate can lead to.
+         *
+         * @return The best score.
+         */
+        double priority() {
+            return element ? node.score : node.best;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            return Double.compare(other.priority(), priority());
+        }
+    }
+
+    /**
+     * The elements with a prefix that have the highest scores, best first.
+     * Only the nodes on the way down to those elements, and their children,
+     * are looked at.
+     *
+     * @param prefix The prefix.
+     * @param k The most elements wanted.
+     * @return Up to k elements starting with prefix, in order of decreasing
+     * score.
+     */
+    public List<T> topK(T prefix, int k) {
+        List<T> top = new ArrayList<>(Math.min(k, 64));
+        int[] path = pathTo(prefix);
+        if (path == null || k <= 0) return top;
+
+        PriorityQueue<Candidate> queue = new PriorityQueue<>();
+        queue.add(new Candidate((WeightedNode) nodeAt(path), path, false));
+        while (!queue.isEmpty() && top.size() < k) {
+            Candidate c = queue.poll();
+            if (c.element) {
+                top.add(getMap().inverse(c.digits));
+                continue;
+            }
+            WeightedNode n = c.node;
+            if (n.isTerminal())
+                queue.add(new Candidate(n, c.digits, true));
+            for (int d = n.nextDigit(0); d >= 0; d = n.nextDigit(d + 1)) {
+                WeightedNode child = (WeightedNode) n.child(d);
+                int[] digits = Arrays.copyOf(c.digits,
+                        c.digits.length + 1 + child.runLength());
+                digits[c.digits.length] = d;
+                for (int j = 0; j < child.runLength(); j++)
+                    digits[c.digits.length + 1 + j] = child.run(j);
+                queue.add(new Candidate(child, digits, false));
+            }
+        }
+        return top;
+    }
+
+    /**
+     * Compares topK with sorting every completion of a prefix by score.
+     *
+     * @param args Optionally the name of a file with one word per line.
+     * Otherwise made up words are used.
+     */
+    public static void main(String[] args) {
+        String[] words;
+        try {
+            words = Benchmark.words(args, 1_000_000);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        WeightedTrie<String> trie = wordTrie(true);
+        Random rand = new Random(1);
+        for (String w : words) trie.insert(w, rand.nextDouble());
+
+        String[] prefixes = new String[1000];
+        for (int i = 0; i < prefixes.length; i++)
+            prefixes[i] = words[rand.nextInt(words.length)].substring(0, 1);
+
+        double topK = Benchmark.nanosPerOp(prefixes.length,
+                i -> !trie.topK(prefixes[i], 10).isEmpty());
+        double sorted = Benchmark.nanosPerOp(20,
+                i -> trie.all(prefixes[i])
+                        .map(w -> Map.entry(w, trie.score(w)))
+                        .sorted(Map.Entry.comparingByValue(
+                                Comparator.reverseOrder()))
+                        .limit(10).count() > 0);
+        System.out.printf("top 10 of a one letter prefix: topK %.0f us, "
+                + "sorting all %.0f us%n", topK / 1000, sorted / 1000);
+
+        WeightedTrie<String> small = wordTrie(false);
+        small.insert("ham", 3);
+        small.insert("hamster", 5);
+        small.insert("hat", 1);
+        small.insert("hats", 4);
+        System.out.println(small.topK("ha", 3).stream()
+                .collect(Collectors.joining(", ")));
+    }
+}
+
+/**
+ * A node that carries the score of the element ending at it and the best
+ * score in its subtree.
+ */
+class WeightedNode extends TrieNode {
+
+    /**
+     * The score of the element ending at this node, if it is terminal.
+     */
+    double score;
+
+    /**
+     * The best score of an element at or below this node, negative infinity
+     * if there is none.
+     */
+    double best = Double.NEGATIVE_INFINITY;
+
+    @Override
+    TrieNode newNode() {
+        return new WeightedNode();
+    }
+
+    @Override
+    void adopt(TrieNode other) {
+        super.adopt(other);
+        score = ((WeightedNode) other).score;
+        best = ((WeightedNode) other).best;
+    }
+
+    /**
+     * Recomputes the best score below this node from its own score and its
+     * children's.
+     */
+    void refresh() {
+        best = isTerminal() ? score : Double.NEGATIVE_INFINITY;
+        for (int d = nextDigit(0); d >= 0; d = nextDigit(d + 1))
+            best = Math.max(best, ((WeightedNode) child(d)).best);
+    }
+}
@@ -1,5 +1,6 @@
 package dast;
 
+import java.nio.charset.StandardCharsets;
 import java.util.function.Function;
 
 /**
@@ -54,5 +55,20 @@ public interface toBoundedIntArray<T> extends Function<T, int[]> {
             }
         };
     }
+
+    /**
+     * Strings as the bytes of their UTF-8 encoding, so any string can be
+     * stored. The digits are the same ones DigitCodec.bytes() gives the
+     * encoded bytes, so a trie of strings can be searched with bytes that
+     * were never decoded.
+     *
+     * @return A function from strings to their UTF-8 bytes, below 256.
+     */
+    public static toBoundedIntArray<String> utf8() {
+        DigitCodec<byte[]> bytes = DigitCodec.bytes();
+        return get(s -> bytes.apply(s.getBytes(StandardCharsets.UTF_8)),
+                array -> new String(bytes.inverse(array),
+                        StandardCharsets.UTF_8), 256);
+    }
 }
 
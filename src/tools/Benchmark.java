@@ -0,0 +1,96 @@
+package tools;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.function.IntPredicate;
+import java.util.stream.Stream;
+
+/**
+ * Rough measurements for comparing the data structures here against one
+ * another. These are not a substitute for a proper harness, but they are
+ * enough to see which of two representations is smaller or faster.
+ *
+ * @author Dov Neimand
+ */
+public class Benchmark {
+
+    private Benchmark() {
+    }
+
+    /**
+     * The number of bytes in use on the heap, after asking for a few garbage
+     * collections so that the number mostly reflects live objects.
+     *
+     * @return The bytes in use on the heap.
+     */
+    public static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    /**
+     * The average time an operation takes. The operation is run over every
+     * index a few times to warm up first.
+     *
+     * @param n The number of indices to run the operation on.
+     * @param op The operation, run on each index from 0 to n. What it returns
+     * is only kept so that the work can not be optimized away.
+     * @return The average number of nanoseconds per operation.
+     */
+    public static double nanosPerOp(int n, IntPredicate op) {
+        int sink = 0;
+        for (int warm = 0; warm < 3; warm++)
+            for (int i = 0; i < n; i++) if (op.test(i)) sink++;
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) if (op.test(i)) sink++;
+        long time = System.nanoTime() - start;
+        if (sink == -1) System.out.println();
+        return (double) time / Math.max(n, 1);
+    }
+
+    /**
+     * Words to benchmark with. If a file is named, its lines that are made
+     * only of the letters a to z and A to Z are used. Otherwise made up words
+     * are generated, with letters drawn so that some are much more common
+     * than others, as in real text.
+     *
+     * @param args If not empty, the first element names a file with one word
+     * per line.
+     * @param count The number of words to generate if no file is named.
+     * @return The words.
+     * @throws IOException If the file can not be read.
+     */
+    public static String[] words(String[] args, int count) throws IOException {
+        if (args.length > 0)
+            try (Stream<String> lines = Files.lines(Path.of(args[0]))) {
+                return lines.map(String::trim)
+                        .filter(w -> !w.isEmpty() && w.chars().allMatch(
+                        c -> c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z'))
+                        .toArray(String[]::new);
+            }
+
+        Random rand = new Random(1);
+        String[] words = new String[count];
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.setLength(0);
+            int length = 3 + rand.nextInt(6) + rand.nextInt(6);
+            for (int j = 0; j < length; j++) {
+                double u = rand.nextDouble();
+                sb.append((char) ('a' + (int) (26 * u * u)));
+            }
+            words[i] = sb.toString();
+        }
+        return words;
+    }
+}